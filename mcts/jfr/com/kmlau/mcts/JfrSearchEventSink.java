@@ -0,0 +1,62 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+/**
+ * Records searches as JDK Flight Recorder events. Loaded by SearchEventSink.load().
+ *
+ * @author K M Lau
+ */
+final class JfrSearchEventSink implements SearchEventSink {
+	@Override
+	public Object begin() {
+		final SearchEvent event = new SearchEvent();
+		if (!event.isEnabled()) return null;
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void commit(Object e, SearchStats<?> stats) {
+		if (e == null) return;
+		final SearchEvent event = (SearchEvent) e;
+		event.end();
+		if (!event.shouldCommit()) return;
+		event.playouts = stats.playouts();
+		event.playoutsPerSecond = stats.playoutsPerSecond();
+		event.nodesCreated = stats.nodesCreated();
+		event.nodesPruned = stats.nodesPruned();
+		event.maxDepth = stats.maxDepth();
+		event.averageDepth = stats.averageDepth();
+		event.maxRolloutLength = stats.maxRolloutLength();
+		event.averageRolloutLength = stats.averageRolloutLength();
+		event.selectionTime = stats.selectionNanos();
+		event.expansionTime = stats.expansionNanos();
+		event.playoutTime = stats.playoutNanos();
+		event.backPropagationTime = stats.backPropagationNanos();
+		event.rootVisits = stats.rootVisitCounts().toString();
+		event.commit();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event of a search, spanning it from start to end.
+ *
+ * @author K M Lau
+ */
+@Name("com.kmlau.mcts.Search")
+@Label("MCTS Search")
+@Category("MCTS")
+@Description("Monte Carlo tree search for a move")
+@StackTrace(false)
+final class SearchEvent extends Event {
+	@Label("Playouts")
+	long playouts;
+
+	@Label("Playouts per Second")
+	double playoutsPerSecond;
+
+	@Label("Nodes Created")
+	long nodesCreated;
+
+	@Label("Nodes Pruned")
+	long nodesPruned;
+
+	@Label("Max Depth")
+	int maxDepth;
+
+	@Label("Average Depth")
+	double averageDepth;
+
+	@Label("Max Rollout Length")
+	int maxRolloutLength;
+
+	@Label("Average Rollout Length")
+	double averageRolloutLength;
+
+	@Label("Selection Time")
+	@Description("Estimated from a sample of iterations, summed over workers")
+	@Timespan(Timespan.NANOSECONDS)
+	long selectionTime;
+
+	@Label("Expansion Time")
+	@Description("Estimated from a sample of iterations, summed over workers")
+	@Timespan(Timespan.NANOSECONDS)
+	long expansionTime;
+
+	@Label("Playout Time")
+	@Description("Estimated from a sample of iterations, summed over workers")
+	@Timespan(Timespan.NANOSECONDS)
+	long playoutTime;
+
+	@Label("Back Propagation Time")
+	@Description("Estimated from a sample of iterations, summed over workers")
+	@Timespan(Timespan.NANOSECONDS)
+	long backPropagationTime;
+
+	@Label("Root Visits")
+	@Description("Visit counts of the children of the root by move, most visited first")
+	String rootVisits;
+}
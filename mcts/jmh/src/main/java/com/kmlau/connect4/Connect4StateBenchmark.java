@@ -0,0 +1,105 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.connect4;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of Connect4State operations on a midgame position.
+ *
+ * @author K M Lau
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Connect4StateBenchmark {
+	private Connect4State state;
+	private Move move;
+
+	@Setup
+	public void setUp() {
+		state = new Connect4State();
+		for (int col : new int[] { 3, 3, 2, 4, 4, 2, 5, 1 }) {
+			state.makeMove(Move.of(col));
+		}
+		move = Move.of(6);
+	}
+
+	@Benchmark
+	public Connect4State cloneState() {
+		return state.clone();
+	}
+
+	@Benchmark
+	public Connect4State cloneAndMakeMove() {
+		Connect4State s = state.clone();
+		s.makeMove(move);
+		return s;
+	}
+
+	@Benchmark
+	public long makeAndUnmakeMove() {
+		final long undoToken = state.makeMoveUndoable(move);
+		state.unmakeMove(undoToken);
+		return undoToken;
+	}
+
+	@Benchmark
+	public List<Move> possibleMoves() {
+		return state.possibleMoves();
+	}
+
+	@Benchmark
+	public boolean terminated() {
+		return state.terminated();
+	}
+
+	@Benchmark
+	public double[] randomPlayout() {
+		Connect4State s = state.clone();
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (!s.terminated()) {
+			List<Move> moves = s.possibleMoves();
+			s.makeMove(moves.get(random.nextInt(moves.size())));
+		}
+		return s.utilities();
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kmlau.connect4.Connect4State;
+import com.kmlau.connect4.Move;
+import com.kmlau.g2048.G2048State;
+
+/**
+ * Benchmarks of the hot paths of the search: selection, expansion and back propagation on a Connect 4 search tree,
+ * and drawing 2048 chance outcomes.
+ *
+ * @author K M Lau
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeBenchmark {
+	private Node<Move, Connect4State> root;
+	private Node<Move, Connect4State> leaf;
+	private double[] utilities;
+	private Connect4State leafState;
+	private WeightedRandom<G2048State> chanceOutcomes;
+	private SearchContext<Move, Connect4State> ctx;
+
+	@Setup(Level.Trial)
+	public void setUpTree() {
+		MonteCarloTreeSearch<Move, Connect4State> search = new MonteCarloTreeSearch<>();
+		search.searchGoodMove(new Connect4State(),
+				new SearchLimits.Builder().setMaxPlayouts(20000).setEarlyStopping(false).build());
+		root = search.getRecentSearchTreeRoot();
+		// Follow the principal variation down to a leaf.
+		leaf = root;
+		while (!leaf.unexpanded()) {
+			Node<Move, Connect4State> mostVisited = null;
+			for (Node<Move, Connect4State> child : leaf.getChildren()) {
+				if (mostVisited == null || child.visitCount() > mostVisited.visitCount()) mostVisited = child;
+			}
+			leaf = mostVisited;
+		}
+		leafState = leaf.gameState();
+
+		G2048State state = new G2048State.Builder()
+				.setBoard(0, 0, 3).setBoard(0, 1, 2).setBoard(1, 0, 1).setBoard(2, 2, 1)
+				.build();
+		state.makeMove(state.possibleMoves().get(0));
+		chanceOutcomes = new WeightedRandom<>(state.nextChanceStatesWithProbs());
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpContext() {
+		ctx = new SearchContext<>();
+		ctx.treeNodeCount = new AtomicInteger(1);
+		ctx.pruning = new AtomicBoolean();
+		utilities = Node.playOut(leafState, ctx);
+	}
+
+	@Benchmark
+	public Node<Move, Connect4State> selectChild() {
+		return root.selectChild(ctx);
+	}
+
+	@Benchmark
+	public Node<Move, Connect4State> expand() {
+		return new Node<Move, Connect4State>(null, leafState, null).expand(ctx);
+	}
+
+	@Benchmark
+	public Node<Move, Connect4State> backPropagate() {
+		leaf.backPropagate(utilities, ctx);
+		return leaf;
+	}
+
+	@Benchmark
+	public double[] playOut() {
+		return Node.playOut(leafState, ctx);
+	}
+
+	@Benchmark
+	public G2048State weightedRandomGet() {
+		return chanceOutcomes.get();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kmlau.connect4.Connect4State;
+import com.kmlau.connect4.Move;
+import com.kmlau.g2048.G2048State;
+
+/**
+ * End to end search throughput, in playouts per second, by kind of parallelism and number of threads.
+ *
+ * @author K M Lau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+	private static final int PLAYOUTS = 10000;
+
+	@Param({ "1", "2", "4" })
+	private int threads;
+
+	@Param({ "root", "tree", "leaf" })
+	private String parallelism;
+
+	private MonteCarloTreeSearch<Move, Connect4State> connect4Search;
+	private MonteCarloTreeSearch<G2048State.Move, G2048State> g2048Search;
+	private SearchLimits limits;
+	private G2048State g2048State;
+
+	@Setup
+	public void setUp() {
+		connect4Search = new MonteCarloTreeSearch<>();
+		g2048Search = new MonteCarloTreeSearch<>();
+		setParallelism(connect4Search);
+		setParallelism(g2048Search);
+		limits = new SearchLimits.Builder().setMaxPlayouts(PLAYOUTS).setEarlyStopping(false).build();
+		g2048State = new G2048State.Builder().setBoard(2, 1, 1).setBoard(3, 2, 1).build();
+	}
+
+	private void setParallelism(MonteCarloTreeSearch<?, ?> search) {
+		switch (parallelism) {
+		case "root":
+			search.setRootParallelism(threads);
+			break;
+		case "tree":
+			search.setTreeParallelism(threads);
+			break;
+		case "leaf":
+			search.setLeafParallelism(threads);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown parallelism: " + parallelism);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		connect4Search.shutdown();
+		g2048Search.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PLAYOUTS)
+	public Move connect4() {
+		return connect4Search.searchGoodMove(new Connect4State(), limits);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PLAYOUTS)
+	public G2048State.Move g2048() {
+		return g2048Search.searchGoodMove(g2048State, limits);
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.connect4;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.kmlau.mcts.MonteCarloTreeSearch;
+import com.kmlau.mcts.OpeningBook;
+import com.kmlau.mcts.SearchLimits;
+
+/**
+ * Connect-4 opening book in a memory-mapped file, for MonteCarloTreeSearch.setOpeningBook(). Opening the book
+ * costs no reading, and the JVMs using the same file share its pages through the page cache.
+ * <p>
+ * The file is an 8 byte header followed by 8 byte entries sorted in ascending order, looked up by binary search.
+ * An entry holds the key of a position in its high bits and the column of the book move in its low byte.
+ * Positions and their mirror images are stored once, under the smaller of their keys.
+ * <p>
+ * The book is built offline by build(), or from the command line by main(): every position within a number of
+ * plies in which one player has followed the book so far, and the other player has made any moves, is searched
+ * by MonteCarloTreeSearch in solver mode.
+ * @author K M Lau
+ */
+public class Connect4OpeningBook implements OpeningBook<Move, Connect4State> {
+	private static final long MAGIC = 0x43344f70656e3031L; // "C4Open01"
+	private static final int HEADER_BYTES = 8;
+	private static final int ENTRY_BYTES = 8;
+	private static final int COLUMN_BITS = Connect4State.COLUMN_BITS;
+	private static final long COLUMN_MASK = (1L << COLUMN_BITS) - 1;
+	private static final int LAST_COLUMN = Connect4State.COLUMNS - 1;
+
+	private final MappedByteBuffer entries;
+	private final int entryCount;
+
+	private Connect4OpeningBook(MappedByteBuffer entries) {
+		this.entries = entries;
+		this.entryCount = (entries.capacity() - HEADER_BYTES) / ENTRY_BYTES;
+	}
+
+	/**
+	 * Map a book file into memory.
+	 * @throws IOException if the file cannot be read or is not a book.
+	 */
+	public static Connect4OpeningBook open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE || (size - HEADER_BYTES) % ENTRY_BYTES != 0) {
+				throw new IOException("Not a Connect-4 opening book: " + file);
+			}
+			// The mapping stays valid after the channel is closed.
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getLong(0) != MAGIC) {
+				throw new IOException("Not a Connect-4 opening book: " + file);
+			}
+			return new Connect4OpeningBook(buffer);
+		}
+	}
+
+	/**
+	 * @return number of positions in the book.
+	 */
+	public int size() {
+		return entryCount;
+	}
+
+	@Override
+	public Move lookup(Connect4State gameState) {
+		if (gameState.terminated()) return null;
+		final long current = gameState.discs(gameState.currentPlayer());
+		final long occupied = gameState.occupied();
+		final long key = key(current, occupied);
+		final long mirroredKey = key(mirror(current), mirror(occupied));
+		final int column = find(Math.min(key, mirroredKey));
+		if (column < 0) return null;
+		return Move.of(mirroredKey < key ? LAST_COLUMN - column : column);
+	}
+
+	/**
+	 * @return column of the entry of the given key; -1 if not found.
+	 */
+	private int find(long key) {
+		// Absolute gets leave the buffer position alone, so concurrent lookups are safe.
+		int low = 0;
+		int high = entryCount - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final long entry = entries.getLong(HEADER_BYTES + mid * ENTRY_BYTES);
+			final long entryKey = entry >>> 8;
+			if (entryKey < key) {
+				low = mid + 1;
+			} else if (entryKey > key) {
+				high = mid - 1;
+			} else {
+				return (int) (entry & 0xff);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return key identifying a position: a 1 bit right above the top disc of every column, which is what the
+	 *   occupied cells plus the bottom cells add up to, and the discs of the player to move below.
+	 */
+	private static long key(long current, long occupied) {
+		return current + occupied + Connect4State.BOTTOM_MASK;
+	}
+
+	/**
+	 * @return bitboard with the columns in reverse order.
+	 */
+	private static long mirror(long bitboard) {
+		long mirrored = 0;
+		for (int c = 0; c <= LAST_COLUMN; ++c) {
+			mirrored |= ((bitboard >>> (c * COLUMN_BITS)) & COLUMN_MASK) << ((LAST_COLUMN - c) * COLUMN_BITS);
+		}
+		return mirrored;
+	}
+
+	/**
+	 * Build a book by searching every position within the given number of plies in which either player has
+	 * followed the book, and write it to a file.
+	 * @param plies number of moves from the start of the game; positions after that many moves are not in the book.
+	 * @param limits search limits of each position.
+	 * @return number of positions in the book.
+	 */
+	public static int build(Path file, int plies, SearchLimits limits) throws IOException {
+		final MonteCarloTreeSearch<Move, Connect4State> mcts = new MonteCarloTreeSearch<>();
+		mcts.setSolver(true, 1);
+		final Map<Long, Integer> book = new TreeMap<>();
+		try {
+			for (int bookPlayer = 1; bookPlayer <= 2; ++bookPlayer) {
+				addPositions(new Connect4State(), plies, bookPlayer, mcts, limits, book);
+			}
+		} finally {
+			mcts.shutdown();
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeLong(MAGIC);
+			// The tree map iterates in ascending order of the keys.
+			for (Map.Entry<Long, Integer> entry : book.entrySet()) {
+				out.writeLong(entry.getKey() << 8 | entry.getValue());
+			}
+		}
+		return book.size();
+	}
+
+	/**
+	 * Add the moves of the book player in the positions from the given one on, within the given number of plies.
+	 * @param book book columns by the smaller key of a position and its mirror image, in the orientation of that key.
+	 */
+	private static void addPositions(Connect4State state, int plies, int bookPlayer,
+			MonteCarloTreeSearch<Move, Connect4State> mcts, SearchLimits limits, Map<Long, Integer> book) {
+		if (plies == 0 || state.terminated()) return;
+		if (state.currentPlayer() != bookPlayer) {
+			for (Move move : state.possibleMoves()) {
+				final Connect4State next = state.clone();
+				next.makeMove(move);
+				addPositions(next, plies - 1, bookPlayer, mcts, limits, book);
+			}
+			return;
+		}
+		final long current = state.discs(bookPlayer);
+		final long occupied = state.occupied();
+		final long key = key(current, occupied);
+		final long mirroredKey = key(mirror(current), mirror(occupied));
+		final long bookKey = Math.min(key, mirroredKey);
+		Integer bookColumn = book.get(bookKey);
+		int column;
+		if (bookColumn != null) {
+			column = mirroredKey < key ? LAST_COLUMN - bookColumn : bookColumn;
+		} else {
+			column = mcts.searchGoodMove(state, limits).col;
+			book.put(bookKey, mirroredKey < key ? LAST_COLUMN - column : column);
+		}
+		final Connect4State next = state.clone();
+		next.makeMove(Move.of(column));
+		addPositions(next, plies - 1, bookPlayer, mcts, limits, book);
+	}
+
+	/**
+	 * Build a book from the command line.
+	 * Usage: Connect4OpeningBook file plies millisecondsPerPosition
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("Usage: Connect4OpeningBook file plies millisecondsPerPosition");
+			System.exit(2);
+		}
+		final SearchLimits limits = new SearchLimits.Builder()
+				.setTimeAllowed(Long.parseLong(args[2]), TimeUnit.MILLISECONDS)
+				.build();
+		final int positions = build(Paths.get(args[0]), Integer.parseInt(args[1]), limits);
+		System.out.println(positions + " positions written to " + args[0]);
+	}
+}
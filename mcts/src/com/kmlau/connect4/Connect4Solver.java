@@ -0,0 +1,163 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.connect4;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.kmlau.mcts.EndgameSolver;
+
+/**
+ * Exact solver of Connect-4 endgames, for MonteCarloTreeSearch.setEndgameSolver(). It solves game states with at
+ * most a given number of empty cells by a negamax search with alpha-beta pruning over the bitboards, valuing a win
+ * 1, a draw 0 and a loss -1. Moves are searched from the central columns outwards, immediate wins end the search,
+ * an immediate threat of the opponent forces the blocking move, and a cell right below a winning cell of the
+ * opponent is never played. Searched positions are kept in a transposition table, shared by the threads calling
+ * the solver and by successive searches.
+ * @author K M Lau
+ */
+public class Connect4Solver implements EndgameSolver<Connect4State> {
+	private static final int ROWS = Connect4State.ROWS;
+	private static final int COLUMN_BITS = Connect4State.COLUMN_BITS;
+	private static final long BOTTOM_MASK = Connect4State.BOTTOM_MASK;
+	private static final long BOARD_MASK = Connect4State.BOARD_MASK;
+	// Central columns take part in more lines, so their moves are more often the best.
+	private static final int[] COLUMN_ORDER = {3, 2, 4, 1, 5, 0, 6};
+	private static final long[] COLUMN_MASKS = new long[Connect4State.COLUMNS];
+	static {
+		for (int c = 0; c < COLUMN_MASKS.length; ++c) COLUMN_MASKS[c] = ((1L << ROWS) - 1) << (c * COLUMN_BITS);
+	}
+
+	// A table entry packs the position key in the low KEY_BITS bits, then the bound type, then the value plus 1.
+	private static final int KEY_BITS = Connect4State.COLUMNS * COLUMN_BITS;
+	private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+	private static final int EXACT = 0;
+	private static final int LOWER_BOUND = 1;
+	private static final int UPPER_BOUND = 2;
+	// A prime number of entries spreads the keys, which are sums of bitboards, evenly.
+	private static final int TABLE_SIZE = 524287;
+
+	private final int maxEmptyCells;
+	// Entries are read and written whole, so that concurrent callers never see a torn entry.
+	private final AtomicLongArray table = new AtomicLongArray(TABLE_SIZE);
+
+	/**
+	 * @param maxEmptyCells game states with more empty cells are left to the search; up to about 20 they are
+	 *   solved within milliseconds.
+	 */
+	public Connect4Solver(int maxEmptyCells) {
+		if (maxEmptyCells < 0) {
+			throw new IllegalArgumentException("Max empty cells must not be negative: " + maxEmptyCells);
+		}
+		this.maxEmptyCells = maxEmptyCells;
+	}
+
+	@Override
+	public double[] solve(Connect4State gameState) {
+		if (gameState.terminated()) return gameState.utilities();
+		final long occupied = gameState.occupied();
+		if (Connect4State.ROWS * Connect4State.COLUMNS - Long.bitCount(occupied) > maxEmptyCells) return null;
+		final int player = gameState.currentPlayer();
+		final int value = negamax(gameState.discs(player), occupied, -1, 1);
+		final double[] utilities = new double[3];
+		utilities[player] = value;
+		utilities[3 - player] = -value;
+		return utilities;
+	}
+
+	/**
+	 * @param current discs of the player to move.
+	 * @param occupied occupied cells.
+	 * @return value of the position to the player to move if within the window (alpha, beta), else a bound beyond
+	 *   the window.
+	 */
+	private int negamax(long current, long occupied, int alpha, int beta) {
+		final long playable = (occupied + BOTTOM_MASK) & BOARD_MASK;
+		if (playable == 0) return 0;
+		if ((winningCells(current, occupied) & playable) != 0) return 1;
+		final long opponent = current ^ occupied;
+		final long opponentWins = winningCells(opponent, occupied);
+		final long threats = opponentWins & playable;
+		if (Long.bitCount(threats) > 1) return -1;
+		// Block the threat if any, and never fill the cell below a winning cell of the opponent.
+		final long candidates = (threats != 0 ? threats : playable) & ~(opponentWins >>> 1);
+		if (candidates == 0) return -1;
+
+		final long key = current + occupied + 1;
+		final int index = (int) (key % TABLE_SIZE);
+		final long entry = table.get(index);
+		if ((entry & KEY_MASK) == key) {
+			final int value = (int) (entry >>> (KEY_BITS + 2)) - 1;
+			switch ((int) (entry >>> KEY_BITS) & 3) {
+			case EXACT:
+				return value;
+			case LOWER_BOUND:
+				alpha = Math.max(alpha, value);
+				break;
+			default:
+				beta = Math.min(beta, value);
+			}
+			if (alpha >= beta) return value;
+		}
+
+		final int originalAlpha = alpha;
+		int best = -2;
+		for (int c : COLUMN_ORDER) {
+			final long cell = candidates & COLUMN_MASKS[c];
+			if (cell == 0) continue;
+			final int value = -negamax(opponent, occupied | cell, -beta, -alpha);
+			if (value > best) {
+				best = value;
+				if (value > alpha) {
+					alpha = value;
+					if (alpha >= beta) break;
+				}
+			}
+		}
+		final int bound = best <= originalAlpha ? UPPER_BOUND : best >= beta ? LOWER_BOUND : EXACT;
+		table.set(index, key | (long) bound << KEY_BITS | (long) (best + 1) << (KEY_BITS + 2));
+		return best;
+	}
+
+	/**
+	 * @return empty cells that would complete four in a row of the given discs.
+	 */
+	private static long winningCells(long discs, long occupied) {
+		// Vertical: only three discs right below.
+		final long cells = (discs << 1) & (discs << 2) & (discs << 3)
+				| lineCells(discs, COLUMN_BITS) | lineCells(discs, COLUMN_BITS - 1) | lineCells(discs, COLUMN_BITS + 1);
+		return cells & BOARD_MASK & ~occupied;
+	}
+
+	/**
+	 * @param shift bit distance between neighbouring cells of a line: horizontal or one of the diagonals.
+	 * @return cells completing four in a row of the discs along lines of the given direction, at any of the four
+	 *   positions of the line. The sentinel bits, never occupied, keep lines from wrapping across columns.
+	 */
+	private static long lineCells(long discs, int shift) {
+		long pair = (discs << shift) & (discs << 2 * shift);
+		long cells = pair & ((discs << 3 * shift) | (discs >>> shift));
+		pair = (discs >>> shift) & (discs >>> 2 * shift);
+		return cells | pair & ((discs << shift) | (discs >>> 3 * shift));
+	}
+}
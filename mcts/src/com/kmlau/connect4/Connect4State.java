@@ -24,85 +24,92 @@
 package com.kmlau.connect4;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import com.kmlau.mcts.GameStateBase;
+import com.kmlau.mcts.UndoableGameState;
 
 /**
  * Game state and game play logics for Connect-4 games.
+ * The board is a pair of bitboards, one per player, plus a height mask marking the lowest empty cell of each column.
+ * Cell (row, col) is bit col * 7 + row; the 7th bit of each column is a sentinel that is never occupied.
  *
  * @author K M Lau
  */
-public class Connect4State extends GameStateBase<Move, Connect4State> {
-	private int currentPlayer = 1;
-	private int[][] board;
-
-	private final CachedValue<Integer> winner = new CachedValue<Integer>() {
-		@Override
-		protected Integer compute() {
-			int winner = 0;
-			for (int r = 0; winner == 0 && r < 6; ++r) {
-				winner = new Scanner4(r, 0, 0, 1).scan();
-			}
-			for (int c = 0; winner == 0 && c < 7; ++c) {
-				winner = new Scanner4(0, c, 1, 0).scan();
-			}
-			for (int c = 0; winner == 0 && c <= 3; ++c) {
-				winner = new Scanner4(0, c, 1, 1).scan();
-			}
-			for (int r = 1; winner == 0 && r <= 2; ++r) {
-				winner = new Scanner4(r, 0, 1, 1).scan();
-			}
-			for (int c = 3; winner == 0 && c < 7; ++c) {
-				winner = new Scanner4(0, c, 1, -1).scan();
-			}
-			for (int r = 1; winner == 0 && r <= 2; ++r) {
-				winner = new Scanner4(r, 6, 1, -1).scan();
-			}
-			return winner;
-		}
-	};
-
-	private class Scanner4 {
-		private final int r0, c0;
-		private final int dr, dc;
-		Scanner4(int r0, int c0, int dr, int dc) {
-			this.r0 = r0; this.c0 = c0;
-			this.dr = dr; this.dc = dc;
+public class Connect4State extends GameStateBase<Move, Connect4State>
+		implements UndoableGameState<Move, Connect4State> {
+	static final int ROWS = 6;
+	static final int COLUMNS = 7;
+	static final int COLUMN_BITS = ROWS + 1;
+
+	// Bits of the cells of each column, without and with the sentinel.
+	private static final long[] COLUMN_MASKS = new long[COLUMNS];
+	private static final long[] COLUMN_WITH_SENTINEL_MASKS = new long[COLUMNS];
+	// Bottom cell of every column: the height mask of an empty board.
+	static final long BOTTOM_MASK;
+	// Every cell of the board, excluding the sentinels.
+	static final long BOARD_MASK;
+	static {
+		long bottom = 0;
+		for (int c = 0; c < COLUMNS; ++c) {
+			COLUMN_MASKS[c] = ((1L << ROWS) - 1) << (c * COLUMN_BITS);
+			COLUMN_WITH_SENTINEL_MASKS[c] = ((1L << COLUMN_BITS) - 1) << (c * COLUMN_BITS);
+			bottom |= 1L << (c * COLUMN_BITS);
 		}
+		BOTTOM_MASK = bottom;
+		BOARD_MASK = bottom * ((1L << ROWS) - 1);
+	}
 
-		int scan() {
-			int p = 0;
-			int n = 0;
-			for (int r = r0, c = c0; 0 <= r && r < 6 && 0 <= c && c < 7; r += dr, c += dc) {
-				final int x = board[r][c];
-				if (x == 0) {
-					n = 0;
-					continue;
-				}
-				if (n == 0) {
-					p = x;
-					n = 1;
-				} else {
-					if (p == x) {
-						if ((++n) == 4) return p;
-					} else {
-						p = x;
-						n = 1;
-					}
-				}
+	// Immutable move lists indexed by the bitmask of legal columns.
+	private static final List<List<Move>> MOVE_LISTS = new ArrayList<>(1 << COLUMNS);
+	static {
+		for (int columnMask = 0; columnMask < 1 << COLUMNS; ++columnMask) {
+			List<Move> moves = new ArrayList<>();
+			for (int c = 0; c < COLUMNS; ++c) {
+				if ((columnMask & (1 << c)) != 0) moves.add(Move.of(c));
 			}
-			return 0;
+			MOVE_LISTS.add(Collections.unmodifiableList(moves));
 		}
 	}
 
-	private Connect4State(int[][] board) {
-		this.board = board;
+	// Zobrist keys of a disc of each player in each cell, and of player 2 having the turn.
+	private static final long[][] ZOBRIST_DISC_KEYS = new long[3][COLUMNS * COLUMN_BITS];
+	private static final long ZOBRIST_PLAYER2_KEY;
+	static {
+		Random r = new Random(0x436f6e6e65637434L);
+		for (int p = 1; p <= 2; ++p) for (int bit = 0; bit < COLUMNS * COLUMN_BITS; ++bit) {
+			ZOBRIST_DISC_KEYS[p][bit] = r.nextLong();
+		}
+		ZOBRIST_PLAYER2_KEY = r.nextLong();
 	}
 
+	private int currentPlayer = 1;
+	private long player1Discs = 0;
+	private long player2Discs = 0;
+	private long heightMask = BOTTOM_MASK;
+	private int winner = 0;
+	private long zobristHash = 0;
+
 	public Connect4State() {
-		this(new int[6][7]);
+	}
+
+	/**
+	 * @return whether the discs contain four in a row in any direction.
+	 */
+	static boolean hasFourInARow(long discs) {
+		// Shift by 1: vertical; by COLUMN_BITS: horizontal; by COLUMN_BITS -/+ 1: the two diagonals.
+		// The sentinel bits keep lines from wrapping across columns.
+		long m = discs & (discs >>> 1);
+		if ((m & (m >>> 2)) != 0) return true;
+		m = discs & (discs >>> COLUMN_BITS);
+		if ((m & (m >>> (2 * COLUMN_BITS))) != 0) return true;
+		m = discs & (discs >>> (COLUMN_BITS - 1));
+		if ((m & (m >>> (2 * (COLUMN_BITS - 1)))) != 0) return true;
+		m = discs & (discs >>> (COLUMN_BITS + 1));
+		return (m & (m >>> (2 * (COLUMN_BITS + 1)))) != 0;
 	}
 
 	@Override
@@ -115,14 +122,25 @@ public class Connect4State extends GameStateBase<Move, Connect4State> {
 		return currentPlayer;
 	}
 
+	/**
+	 * @return bitmask of columns a disc can be dropped into, bit c for column c; 0 once the game has terminated.
+	 */
+	public int legalMoveMask() {
+		if (winner > 0) return 0;
+		final long open = heightMask & BOARD_MASK;
+		int columnMask = 0;
+		for (int c = 0; c < COLUMNS; ++c) {
+			if ((open & COLUMN_MASKS[c]) != 0) columnMask |= 1 << c;
+		}
+		return columnMask;
+	}
+
+	/**
+	 * @return legal moves. The list is shared and immutable.
+	 */
 	@Override
 	public List<Move> possibleMoves() {
-		List<Move> moves = new ArrayList<>();
-		if (winner.get() > 0) return moves;
-		for (int c = 0; c < 7; ++c) {
-			if (board[5][c] == 0) moves.add(Move.of(c));
-		}
-		return moves;
+		return MOVE_LISTS.get(legalMoveMask());
 	}
 
 	@Override
@@ -132,13 +150,13 @@ public class Connect4State extends GameStateBase<Move, Connect4State> {
 
 	@Override
 	public boolean terminated() {
-		return possibleMoves().size() == 0 || winner.get() > 0;
+		return winner > 0 || (player1Discs | player2Discs) == BOARD_MASK;
 	}
 
 	@Override
 	public double utility(int player) {
-		if (winner.get() > 0) {
-			return winner.get() == player ? 1 : -1;
+		if (winner > 0) {
+			return winner == player ? 1 : -1;
 		}
 		return 0;
 	}
@@ -150,15 +168,20 @@ public class Connect4State extends GameStateBase<Move, Connect4State> {
 
 	@Override
 	protected void makeMoveInternal(Move m) throws IllegalArgumentException {
-		if (winner.get() > 0) throw new IllegalStateException("game already terminated.");
-		for (int r = 0; r < 6; ++r) {
-			if (board[r][m.col] == 0) {
-				board[r][m.col] = currentPlayer();
-				currentPlayer = 3 - currentPlayer;
-				return;
-			}
+		if (winner > 0) throw new IllegalStateException("game already terminated.");
+		final long cell = heightMask & COLUMN_MASKS[m.col];
+		if (cell == 0) throw new IllegalArgumentException("Invalid move");
+		heightMask += cell;
+		final long discs;
+		if (currentPlayer == 1) {
+			discs = player1Discs |= cell;
+		} else {
+			discs = player2Discs |= cell;
 		}
-		throw new IllegalArgumentException("Invalid move");
+		// Only the player just moved can have completed a line, necessarily through the new disc.
+		if (hasFourInARow(discs)) winner = currentPlayer;
+		zobristHash ^= ZOBRIST_DISC_KEYS[currentPlayer][Long.numberOfTrailingZeros(cell)] ^ ZOBRIST_PLAYER2_KEY;
+		currentPlayer = 3 - currentPlayer;
 	}
 
 	@Override
@@ -166,30 +189,94 @@ public class Connect4State extends GameStateBase<Move, Connect4State> {
 		throw new UnsupportedOperationException();
 	}
 
-	private static int[][] clone(int[][] board) {
-		int[][] newBoard = new int[6][7];
-		for (int r = 0; r < 6; ++r) for (int c = 0; c < 7; ++c) {
-			newBoard[r][c] = board[r][c];
+	/**
+	 * @return the column of the move as the undo token.
+	 */
+	@Override
+	public long makeMoveUndoable(Move m) throws IllegalStateException, IllegalArgumentException {
+		makeMove(m);
+		return m.col;
+	}
+
+	@Override
+	public long makeChanceMoveUndoable() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void unmakeMove(long undoToken) {
+		final int col = (int) undoToken;
+		final long cell = (heightMask & COLUMN_WITH_SENTINEL_MASKS[col]) >>> 1;
+		if ((cell & COLUMN_MASKS[col]) == 0) throw new IllegalArgumentException("Empty column: " + col);
+		currentPlayer = 3 - currentPlayer;
+		if (currentPlayer == 1) {
+			player1Discs &= ~cell;
+		} else {
+			player2Discs &= ~cell;
 		}
-		return newBoard;
+		heightMask -= cell;
+		// The game could not have continued past a win.
+		winner = 0;
+		zobristHash ^= ZOBRIST_DISC_KEYS[currentPlayer][Long.numberOfTrailingZeros(cell)] ^ ZOBRIST_PLAYER2_KEY;
+		clearCachedValues();
 	}
 
 	@Override
 	protected Connect4State cloneInternal() {
-		Connect4State s = new Connect4State(clone(board));
+		Connect4State s = new Connect4State();
 		s.currentPlayer = currentPlayer;
+		s.player1Discs = player1Discs;
+		s.player2Discs = player2Discs;
+		s.heightMask = heightMask;
+		s.winner = winner;
+		s.zobristHash = zobristHash;
 		return s;
 	}
 
+	/**
+	 * @return bitboard of the discs of the given player.
+	 */
+	long discs(int player) {
+		return player == 1 ? player1Discs : player2Discs;
+	}
+
+	/**
+	 * @return bitboard of the occupied cells.
+	 */
+	long occupied() {
+		return player1Discs | player2Discs;
+	}
+
 	public int getCell(int row, int col) {
-		return board[row][col];
+		final long cell = 1L << (col * COLUMN_BITS + row);
+		if ((player1Discs & cell) != 0) return 1;
+		if ((player2Discs & cell) != 0) return 2;
+		return 0;
+	}
+
+	public boolean equals(Object x) {
+		if (x instanceof Connect4State) {
+			Connect4State that = (Connect4State) x;
+			return currentPlayer == that.currentPlayer &&
+					player1Discs == that.player1Discs && player2Discs == that.player2Discs;
+		}
+		return false;
+	}
+
+	public int hashCode() {
+		return (int) (zobristHash ^ (zobristHash >>> 32));
+	}
+
+	@Override
+	public long zobristHash() {
+		return zobristHash;
 	}
 
 	public String toString() {
 		StringBuilder buf = new StringBuilder();
 		for (int r = 5; r >= 0; --r) {
 			for (int c = 0; c < 7; ++c) {
-				buf.append("    ").append(board[r][c]).append(',');
+				buf.append("    ").append(getCell(r, c)).append(',');
 			}
 			buf.append('\n');
 		}
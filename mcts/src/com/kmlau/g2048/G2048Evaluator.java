@@ -0,0 +1,109 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.g2048;
+
+import com.kmlau.mcts.StateEvaluator;
+
+/**
+ * Heuristic evaluator of 2048 game states, for playouts cut short by MonteCarloTreeSearch.setRolloutDepth().
+ * It estimates the number of moves a random playout would still make from the state, by a linear function of:
+ * the number of empty cells, the number of tiles that can merge with a neighbour in a row or column, and the
+ * monotonicity of the rows and columns, i.e. how far the tiles along a line are from being in ascending or
+ * descending order. The line features are precomputed for all 65536 rows, so an evaluation takes a few table
+ * lookups. The weights are fitted by least squares to the lengths of random playouts from positions of searched
+ * games.
+ * @author K M Lau
+ */
+public class G2048Evaluator implements StateEvaluator<G2048State> {
+	private static final double INTERCEPT = 29.5;
+	private static final double EMPTY_CELL_WEIGHT = 10.1;
+	private static final double MERGE_WEIGHT = 3.0;
+	// Per unit of non-monotonicity, measured on the 4th power of the base-2 logarithms of the tiles.
+	private static final double MONOTONICITY_WEIGHT = -7.9e-4;
+
+	// Merge and monotonicity terms of a row, or a column of the transposed board, indexed by the 16-bit line.
+	private static final float[] LINE_SCORES = new float[1 << 16];
+	static {
+		for (int line = 0; line < 1 << 16; ++line) {
+			LINE_SCORES[line] = (float) (MERGE_WEIGHT * mergeableTiles(line) +
+					MONOTONICITY_WEIGHT * nonMonotonicity(line));
+		}
+	}
+
+	/**
+	 * @return number of tiles that can merge with their neighbour along the line, empty cells skipped.
+	 */
+	private static int mergeableTiles(int line) {
+		int count = 0;
+		int run = 0;
+		int previous = 0;
+		for (int i = 0; i < 4; ++i) {
+			final int val = (line >>> (4 * i)) & 0xF;
+			if (val == 0) continue;
+			if (val == previous) {
+				++run;
+			} else {
+				if (run > 0) count += run + 1;
+				run = 0;
+			}
+			previous = val;
+		}
+		return run > 0 ? count + run + 1 : count;
+	}
+
+	/**
+	 * @return the smaller of the total rise and the total fall of the 4th powers of the tile logarithms along the
+	 *   line; 0 for a monotonic line.
+	 */
+	private static double nonMonotonicity(int line) {
+		double rise = 0;
+		double fall = 0;
+		for (int i = 1; i < 4; ++i) {
+			final double previous = Math.pow((line >>> (4 * (i - 1))) & 0xF, 4);
+			final double current = Math.pow((line >>> (4 * i)) & 0xF, 4);
+			if (previous > current) {
+				fall += previous - current;
+			} else {
+				rise += current - previous;
+			}
+		}
+		return Math.min(rise, fall);
+	}
+
+	private static double lineScores(long b) {
+		return LINE_SCORES[(int) (b & 0xFFFF)] + LINE_SCORES[(int) ((b >>> 16) & 0xFFFF)] +
+				LINE_SCORES[(int) ((b >>> 32) & 0xFFFF)] + LINE_SCORES[(int) (b >>> 48)];
+	}
+
+	/**
+	 * @return the estimated utilities at the end of a random playout from the game state.
+	 */
+	@Override
+	public double[] evaluate(G2048State gameState) {
+		final long board = gameState.board();
+		final double remainingMoves = INTERCEPT + EMPTY_CELL_WEIGHT * Long.bitCount(G2048State.emptyCells(board)) +
+				lineScores(board) + lineScores(G2048State.transpose(board));
+		return new double[]{0, gameState.utility(1) + Math.max(0, remainingMoves) / 2048.0};
+	}
+}
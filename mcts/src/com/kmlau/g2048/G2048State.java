@@ -24,98 +24,165 @@
 package com.kmlau.g2048;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.EnumMap;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.kmlau.mcts.GameStateBase;
 import com.kmlau.mcts.MonteCarloTreeSearch;
+import com.kmlau.mcts.UndoableGameState;
 
 /**
  * Game state of a 2048 game.
+ * The board is packed into a long of 16 4-bit cells, each the base-2 logarithm of the tile value, 0 for an empty
+ * cell. Cell (row, col) is at bits 16 * row + 4 * col. Moves are computed with lookup tables of all 65536 rows.
+ * Tiles are capped at 2^15; two such tiles do not merge.
  * @author K M Lau
  *
  */
-public class G2048State extends GameStateBase<G2048State.Move, G2048State> {
+public class G2048State extends GameStateBase<G2048State.Move, G2048State>
+		implements UndoableGameState<G2048State.Move, G2048State> {
 
-	private interface BoardAccesser {
-		byte get(int row, int col, byte board[][]);
-		void set(int row, int col, byte value, byte board[][]);
+	public enum Move {
+		LEFT, UP, RIGHT, DOWN;
 	}
 
-	public enum Move implements BoardAccesser {
-		LEFT {
-			public byte get(int row, int col, byte board[][]) {
-				return board[row][col];
-			}
-			public void set(int row, int col, byte value, byte board[][]) {
-				board[row][col] = value;
-			}
-		},
-		UP {
-			public byte get(int row, int col, byte board[][]) {
-				return board[col][row];
-			}
-			public void set(int row, int col, byte value, byte board[][]) {
-				board[col][row] = value;
-			}
-		},
-		RIGHT {
-			public byte get(int row, int col, byte board[][]) {
-				return board[row][3 - col];
-			}
-			public void set(int row, int col, byte value, byte board[][]) {
-				board[row][3 - col] = value;
-			}
-		},
-		DOWN {
-			public byte get(int row, int col, byte board[][]) {
-				return board[3 - col][row];
-			}
-			public void set(int row, int col, byte value, byte board[][]) {
-				board[3 - col][row] = value;
+	private static final int MAX_TILE = 15;
+	private static final long ROW_MASK = 0xFFFFL;
+	private static final long LOW_BITS_OF_CELLS = 0x1111111111111111L;
+
+	// Row after sliding to the left (towards column 0) and to the right, indexed by the row before.
+	private static final char[] ROW_LEFT = new char[1 << 16];
+	private static final char[] ROW_RIGHT = new char[1 << 16];
+	static {
+		for (int row = 0; row < 1 << 16; ++row) {
+			ROW_LEFT[row] = (char) slideRowLeft(row);
+			ROW_RIGHT[row] = (char) reverseRow(slideRowLeft(reverseRow(row)));
+		}
+	}
+
+	// Immutable move lists indexed by the bitmask of legal moves, bit i for Move.values()[i].
+	private static final List<List<Move>> MOVE_LISTS = new ArrayList<>(1 << 4);
+	static {
+		for (int moveMask = 0; moveMask < 1 << 4; ++moveMask) {
+			List<Move> moves = new ArrayList<>();
+			for (Move m : Move.values()) {
+				if ((moveMask & (1 << m.ordinal())) != 0) moves.add(m);
 			}
-		};
+			MOVE_LISTS.add(Collections.unmodifiableList(moves));
+		}
+	}
+
+	// Zobrist keys of each tile value in each cell, and of the chance player having the turn. Empty cells have no key.
+	private static final long[][] ZOBRIST_TILE_KEYS = new long[16][MAX_TILE + 1];
+	private static final long ZOBRIST_CHANCE_KEY;
+	static {
+		Random r = new Random(0x3230343853746174L);
+		for (int cell = 0; cell < 16; ++cell) for (int val = 1; val <= MAX_TILE; ++val) {
+			ZOBRIST_TILE_KEYS[cell][val] = r.nextLong();
+		}
+		ZOBRIST_CHANCE_KEY = r.nextLong();
 	}
 
-	private byte board[][];
+	private long board;
 	private int currentPlayer = 1;
 	private int pastMoveCount = 0;
+	private long zobristHash;
 
-	private final CachedValue<EnumMap<Move, byte[][]>> nextBoards = new CachedValue<EnumMap<Move, byte[][]>>() {
-		@Override
-		protected EnumMap<Move, byte[][]> compute() {
-			EnumMap<Move, byte[][]> nextBoards = new EnumMap<>(Move.class);
-			for (Move m : Move.values()) {
-				byte[][] b = attemptMove(m);
-				if (b != null) nextBoards.put(m, b);
-			}
-			return nextBoards;
-		}
+	private G2048State(long board) {
+		this.board = board;
+	}
 
-		protected void copy(Object src) {
-			// Deep copy of next-board map.
-			@SuppressWarnings("unchecked")
-			EnumMap<Move, byte[][]> m = ((EnumMap<Move, byte[][]>) src).clone();
-			for (Map.Entry<Move, byte[][]> e : m.entrySet()) {
-				e.setValue(G2048State.clone(e.getValue()));
+	/**
+	 * Slide and merge the 4 cells of a row towards the lowest cell, in the same way as the game does.
+	 */
+	private static int slideRowLeft(int row) {
+		int result = 0;
+		int newcol = 0;
+		boolean canCombine = true;
+		for (int col = 0; col < 4; ++col) {
+			final int val = (row >>> (4 * col)) & 0xF;
+			if (val > 0) {
+				if (newcol > 0 && ((result >>> (4 * (newcol - 1))) & 0xF) == val && val < MAX_TILE) {
+					if (canCombine) {
+						result += 1 << (4 * (newcol - 1));
+					} else {
+						result |= val << (4 * newcol++);
+					}
+					canCombine = !canCombine;
+				} else {
+					result |= val << (4 * newcol++);
+					canCombine = true;
+				}
 			}
-			super.copy(m);
 		}
-	};
+		return result;
+	}
 
-	private final CachedValue<Boolean> gameTerminated = new CachedValue<Boolean>() {
-		@Override
-		protected Boolean compute() {
-			return computeTerminatedness();
+	private static int reverseRow(int row) {
+		return ((row & 0xF) << 12) | ((row & 0xF0) << 4) | ((row >>> 4) & 0xF0) | (row >>> 12);
+	}
+
+	/**
+	 * @return the board with rows and columns swapped.
+	 */
+	static long transpose(long b) {
+		long a1 = b & 0xF0F00F0FF0F00F0FL;
+		long a2 = b & 0x0000F0F00000F0F0L;
+		long a3 = b & 0x0F0F00000F0F0000L;
+		long a = a1 | (a2 << 12) | (a3 >>> 12);
+		long b1 = a & 0xFF00FF0000FF00FFL;
+		long b2 = a & 0x00FF00FF00000000L;
+		long b3 = a & 0x00000000FF00FF00L;
+		return b1 | (b2 >>> 24) | (b3 << 24);
+	}
+
+	private static long slideRows(long b, char[] rowTable) {
+		return rowTable[(int) (b & ROW_MASK)] |
+				((long) rowTable[(int) ((b >>> 16) & ROW_MASK)] << 16) |
+				((long) rowTable[(int) ((b >>> 32) & ROW_MASK)] << 32) |
+				((long) rowTable[(int) (b >>> 48)] << 48);
+	}
+
+	/**
+	 * @return the board after the move; unchanged if the move is not possible.
+	 */
+	private static long boardAfterMove(long b, Move m) {
+		switch (m) {
+		case LEFT:
+			return slideRows(b, ROW_LEFT);
+		case RIGHT:
+			return slideRows(b, ROW_RIGHT);
+		case UP:
+			return transpose(slideRows(transpose(b), ROW_LEFT));
+		default:
+			return transpose(slideRows(transpose(b), ROW_RIGHT));
 		}
-	};
+	}
 
-	private G2048State(byte board[][]) {
-		this.board = board;
+	/**
+	 * @return bitmask of moves changing the board, bit i for Move.values()[i].
+	 */
+	private static int legalMoveMask(long b) {
+		int mask = 0;
+		if (slideRows(b, ROW_LEFT) != b) mask |= 1 << Move.LEFT.ordinal();
+		if (slideRows(b, ROW_RIGHT) != b) mask |= 1 << Move.RIGHT.ordinal();
+		final long t = transpose(b);
+		if (slideRows(t, ROW_LEFT) != t) mask |= 1 << Move.UP.ordinal();
+		if (slideRows(t, ROW_RIGHT) != t) mask |= 1 << Move.DOWN.ordinal();
+		return mask;
+	}
+
+	/**
+	 * @return bitmask with the lowest bit of each empty cell set.
+	 */
+	static long emptyCells(long b) {
+		long x = b | (b >>> 2);
+		x |= x >>> 1;
+		return ~x & LOW_BITS_OF_CELLS;
 	}
 
 	@Override
@@ -128,56 +195,15 @@ public class G2048State extends GameStateBase<G2048State.Move, G2048State> {
 		return currentPlayer;
 	}
 
-	private byte[][] attemptMove(Move m) {
-		byte[][] newBoard = new byte[4][4];
-		boolean changed = false;
-		for (int row = 0; row < 4; ++row) {
-			int newcol = 0;
-			boolean canCombine = true;
-			for (int col = 0; col < 4; ++col) {
-				final byte val = m.get(row, col, board);
-				if (val > 0) {
-					if (newcol > 0 && m.get(row, newcol - 1, newBoard) == val) {
-						if (canCombine) {
-							m.set(row, newcol - 1, (byte)(val + 1), newBoard);
-							changed = true;
-						} else {
-							m.set(row, newcol++, val, newBoard);
-						}
-						canCombine = !canCombine;
-					} else {
-						if (col != newcol) changed = true;
-						m.set(row, newcol++, val, newBoard);
-						canCombine = true;
-					}
-				}
-			}
-		}
-		return changed ? newBoard : null;
-	}
-
+	/**
+	 * @return legal moves. The list is shared and immutable.
+	 */
 	@Override
 	public List<Move> possibleMoves() {
 		if (currentPlayer() == PLAYER_CHANCE_NODE) {
 			throw new IllegalStateException("Current state is a chance node.");
 		}
-		return new ArrayList<>(nextBoards.get().keySet());
-	}
-
-	private static class Pos {
-		final int row, col;
-		Pos(int row, int col) {
-			this.row = row;
-			this.col = col;
-		}
-	}
-
-	private List<Pos> getEmptyPos() {
-		List<Pos> emptyPos = new ArrayList<>();
-		for (int row = 0; row < 4; ++row) for (int col = 0; col < 4; ++col) {
-			if (board[row][col] == 0) emptyPos.add(new Pos(row, col));
-		}
-		return emptyPos;
+		return MOVE_LISTS.get(legalMoveMask(board));
 	}
 
 	@Override
@@ -185,52 +211,49 @@ public class G2048State extends GameStateBase<G2048State.Move, G2048State> {
 		if (currentPlayer() != PLAYER_CHANCE_NODE) {
 			throw new IllegalStateException("Current state is not a chance node.");
 		}
-		List<Pos> emptyPos = getEmptyPos();
+		final long empty = emptyCells(board);
+		final int emptyCount = Long.bitCount(empty);
 		Map<G2048State, Double> m = new HashMap<>();
-		if (emptyPos.isEmpty()) return m;
+		if (emptyCount == 0) return m;
 
-		final byte[] newVals = {1, 2};
+		final int[] newVals = {1, 2};
 		final double[] probs = {0.9, 0.1};
-		for (Pos p : emptyPos) for (int i = 0; i < newVals.length; ++i) {
-			G2048State s = clone();
-			s.board[p.row][p.col] = newVals[i];
-			s.currentPlayer = 1;
-			m.put(s, probs[i] / emptyPos.size());
+		for (long e = empty; e != 0; e &= e - 1) {
+			final int shift = Long.numberOfTrailingZeros(e);
+			for (int i = 0; i < newVals.length; ++i) {
+				G2048State s = clone();
+				s.board |= (long) newVals[i] << shift;
+				s.currentPlayer = 1;
+				s.zobristHash ^= ZOBRIST_TILE_KEYS[shift >>> 2][newVals[i]] ^ ZOBRIST_CHANCE_KEY;
+				m.put(s, probs[i] / emptyCount);
+			}
 		}
 		return m;
 	}
 
+	/**
+	 * @return probabilities of the new tile in each empty cell, from the lowest cell bit up: a 2 then a 4 per cell.
+	 */
 	@Override
-	public boolean terminated() {
-		return gameTerminated.get();
+	public double[] chanceOutcomeProbs() {
+		if (currentPlayer() != PLAYER_CHANCE_NODE) {
+			throw new IllegalStateException("Current state is not a chance node.");
+		}
+		final int emptyCount = Long.bitCount(emptyCells(board));
+		final double[] probs = new double[2 * emptyCount];
+		for (int i = 0; i < probs.length; i += 2) {
+			probs[i] = 0.9 / emptyCount;
+			probs[i + 1] = 0.1 / emptyCount;
+		}
+		return probs;
 	}
 
-	private boolean computeTerminatedness() {
-		boolean noEmptyCell = true;
-		for (int i = 0; i < 4 && noEmptyCell; ++i) for (int j = 0; j < 4; ++j) {
-			if (board[i][j] == 0) {
-				noEmptyCell = false;
-				break;
-			}
-		}
+	@Override
+	public boolean terminated() {
 		if (currentPlayer() == PLAYER_CHANCE_NODE) {
-			return noEmptyCell;
-		}
-		if (!noEmptyCell) return false;
-		for (int i = 0; i < 4; ++i) {
-			byte prev1 = board[i][0];
-			byte prev2 = board[0][i];
-			for (int j = 1; j < 4; ++j) {
-				byte v1 = board[i][j];
-				if (prev1 == v1) return false;
-				prev1 = v1;
-
-				byte v2 = board[j][i];
-				if (prev2 == v2) return false;
-				prev2 = v2;
-			}
+			return emptyCells(board) == 0;
 		}
-		return true;
+		return legalMoveMask(board) == 0;
 	}
 
 	@Override
@@ -247,47 +270,142 @@ public class G2048State extends GameStateBase<G2048State.Move, G2048State> {
 		if (currentPlayer() == PLAYER_CHANCE_NODE) {
 			throw new IllegalStateException("Cannot make a player move for chance node state.");
 		}
-		byte[][] newBoard = nextBoards.populated() ? nextBoards.get().get(m) : attemptMove(m);
-		if (newBoard == null) {
+		final long newBoard = boardAfterMove(board, m);
+		if (newBoard == board) {
 			throw new IllegalArgumentException("Cannot make move: " + m);
 		}
-		board = newBoard;
+		replaceBoard(newBoard);
 		currentPlayer = PLAYER_CHANCE_NODE;
 		++pastMoveCount;
 	}
 
+	/**
+	 * Replace the board, updating the Zobrist hash of the changed cells and of the player to move.
+	 */
+	private void replaceBoard(long newBoard) {
+		for (long changed = board ^ newBoard; changed != 0; ) {
+			final int cell = Long.numberOfTrailingZeros(changed) >>> 2;
+			zobristHash ^= ZOBRIST_TILE_KEYS[cell][(int) (board >>> (4 * cell)) & 0xF] ^
+					ZOBRIST_TILE_KEYS[cell][(int) (newBoard >>> (4 * cell)) & 0xF];
+			changed &= ~(0xFL << (4 * cell));
+		}
+		zobristHash ^= ZOBRIST_CHANCE_KEY;
+		board = newBoard;
+	}
+
 	@Override
 	protected void makeChanceMoveInternal() throws IllegalStateException {
 		if (currentPlayer() != PLAYER_CHANCE_NODE) {
 			throw new IllegalStateException("Not a chance node state.");
 		}
 
-		List<Pos> emptyPos = getEmptyPos();
-		if (emptyPos.isEmpty()) {
+		long empty = emptyCells(board);
+		final int emptyCount = Long.bitCount(empty);
+		if (emptyCount == 0) {
 			throw new IllegalStateException("Game terminated.");
 		}
-		Random r = new Random();
-		Pos p = emptyPos.get(r.nextInt(emptyPos.size()));
-		board[p.row][p.col] = r.nextDouble() < 0.9 ? (byte)1 : 2;
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		for (int i = r.nextInt(emptyCount); i > 0; --i) empty &= empty - 1;
+		final int shift = Long.numberOfTrailingZeros(empty);
+		final int val = r.nextDouble() < 0.9 ? 1 : 2;
+		board |= (long) val << shift;
+		zobristHash ^= ZOBRIST_TILE_KEYS[shift >>> 2][val] ^ ZOBRIST_CHANCE_KEY;
+		currentPlayer = 1;
+		++pastMoveCount;
+	}
+
+	@Override
+	protected void makeChanceOutcomeInternal(int outcome) throws IllegalStateException {
+		if (currentPlayer() != PLAYER_CHANCE_NODE) {
+			throw new IllegalStateException("Not a chance node state.");
+		}
+		long empty = emptyCells(board);
+		if (outcome < 0 || outcome >= 2 * Long.bitCount(empty)) {
+			throw new IllegalArgumentException("No such chance outcome: " + outcome);
+		}
+		for (int i = outcome >>> 1; i > 0; --i) empty &= empty - 1;
+		final int shift = Long.numberOfTrailingZeros(empty);
+		final int val = (outcome & 1) + 1;
+		board |= (long) val << shift;
+		zobristHash ^= ZOBRIST_TILE_KEYS[shift >>> 2][val] ^ ZOBRIST_CHANCE_KEY;
 		currentPlayer = 1;
 		++pastMoveCount;
 	}
 
-	private static byte[][] clone(byte[][] board) {
-		byte[][] newBoard = new byte[4][4];
-		for (int i = 0; i < 4; ++i) for (int j = 0; j < 4; ++j) newBoard[i][j] = board[i][j];
-		return newBoard;
+	/**
+	 * @return the board before the move as the undo token.
+	 */
+	@Override
+	public long makeMoveUndoable(Move m) throws IllegalStateException, IllegalArgumentException {
+		final long previousBoard = board;
+		makeMove(m);
+		return previousBoard;
+	}
+
+	/**
+	 * @return the board before the move as the undo token.
+	 */
+	@Override
+	public long makeChanceMoveUndoable() throws IllegalStateException {
+		final long previousBoard = board;
+		makeChanceMove();
+		return previousBoard;
+	}
+
+	/**
+	 * @return the board before the move as the undo token.
+	 */
+	@Override
+	public long makeChanceOutcomeUndoable(int outcome) throws IllegalStateException {
+		final long previousBoard = board;
+		makeChanceOutcome(outcome);
+		return previousBoard;
+	}
+
+	@Override
+	public void unmakeMove(long undoToken) {
+		// Player and chance moves alternate, so the player to move before is the other one.
+		replaceBoard(undoToken);
+		currentPlayer = currentPlayer == PLAYER_CHANCE_NODE ? 1 : PLAYER_CHANCE_NODE;
+		--pastMoveCount;
+		clearCachedValues();
 	}
 
 	protected G2048State cloneInternal() {
-		G2048State c = new G2048State(clone(board));
+		G2048State c = new G2048State(board);
 		c.currentPlayer = currentPlayer;
 		c.pastMoveCount = pastMoveCount;
+		c.zobristHash = zobristHash;
 		return c;
 	}
 
+	/**
+	 * @return the packed board.
+	 */
+	long board() {
+		return board;
+	}
+
+	int pastMoveCount() {
+		return pastMoveCount;
+	}
+
+	/**
+	 * @return the game state of the given packed board, player to move and number of past moves.
+	 */
+	static G2048State of(long board, int currentPlayer, int pastMoveCount) {
+		G2048State s = new G2048State(board);
+		s.currentPlayer = currentPlayer;
+		s.pastMoveCount = pastMoveCount;
+		for (int cell = 0; cell < 16; ++cell) {
+			s.zobristHash ^= ZOBRIST_TILE_KEYS[cell][(int) (board >>> (4 * cell)) & 0xF];
+		}
+		if (currentPlayer == PLAYER_CHANCE_NODE) s.zobristHash ^= ZOBRIST_CHANCE_KEY;
+		return s;
+	}
+
 	public int getTile(int row, int col) {
-		byte b = board[row][col];
+		int b = (int) (board >>> (16 * row + 4 * col)) & 0xF;
 		return b > 0 ? 1 << b : 0;
 	}
 
@@ -314,26 +432,37 @@ public class G2048State extends GameStateBase<G2048State.Move, G2048State> {
 	public boolean equals(Object x) {
 		if (x instanceof G2048State) {
 			G2048State that = (G2048State) x;
-			if (currentPlayer() == that.currentPlayer()) {
-				for (int i = 0; i < 4; ++i) {
-					if (!Arrays.equals(board[i], that.board[i])) return false;
-				}
-				return true;
-			}
+			return currentPlayer() == that.currentPlayer() && board == that.board;
 		}
 		return false;
 	}
 
+	public int hashCode() {
+		return (int) (zobristHash ^ (zobristHash >>> 32));
+	}
+
+	@Override
+	public long zobristHash() {
+		return zobristHash;
+	}
+
 	public static class Builder {
-		private final byte[][] board = new byte[4][4];
+		private long board = 0;
 
+		/**
+		 * @param val base-2 logarithm of the tile value, 0 for an empty cell.
+		 */
 		public Builder setBoard(int row, int col, int val) {
-			board[row][col] = (byte)val;
+			if (val < 0 || val > MAX_TILE) {
+				throw new IllegalArgumentException("Tile out of range: " + val);
+			}
+			final int shift = 16 * row + 4 * col;
+			board = (board & ~(0xFL << shift)) | ((long) val << shift);
 			return this;
 		}
 
 		public G2048State build() {
-			return new G2048State(board);
+			return of(board, 1, 0);
 		}
 	}
 
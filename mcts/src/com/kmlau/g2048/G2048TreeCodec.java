@@ -0,0 +1,56 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.g2048;
+
+import java.nio.ByteBuffer;
+
+import com.kmlau.mcts.GameState;
+import com.kmlau.mcts.TreeCodec;
+
+/**
+ * Encoding of 2048 game states for MonteCarloTreeSearch.saveSearchTree() and loadSearchTree(): the packed board,
+ * whether a tile is to be placed next, and the number of past moves, in 13 bytes.
+ * @author K M Lau
+ */
+public class G2048TreeCodec implements TreeCodec<G2048State> {
+	@Override
+	public int maxStateBytes() {
+		return 8 + 1 + 4;
+	}
+
+	@Override
+	public void writeState(G2048State gameState, ByteBuffer buffer) {
+		buffer.putLong(gameState.board());
+		buffer.put((byte) (gameState.currentPlayer() == GameState.PLAYER_CHANCE_NODE ? 1 : 0));
+		buffer.putInt(gameState.pastMoveCount());
+	}
+
+	@Override
+	public G2048State readState(ByteBuffer buffer) {
+		final long board = buffer.getLong();
+		final int currentPlayer = buffer.get() != 0 ? GameState.PLAYER_CHANCE_NODE : 1;
+		final int pastMoveCount = buffer.getInt();
+		return G2048State.of(board, currentPlayer, pastMoveCount);
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+/**
+ * Exact solver of the game from game states close enough to the end, whose results replace playouts: the search
+ * engine asks it to solve the game state of every new node, and a node it solves is valued at the solved utilities.
+ *
+ * @param <GS> The game state class
+ * @author K M Lau
+ */
+public interface EndgameSolver<GS extends GameState<?, GS>> {
+	/**
+	 * @param gameState a game state, which must be left unchanged.
+	 * @return utilities of all players indexed by numeric player id with perfect play from the game state, on the
+	 *   scale of GameState.utilities(); null if the game state is out of reach of the solver. Must be quick to
+	 *   return null, as it is asked for every new node.
+	 */
+	double[] solve(GS gameState);
+}
@@ -96,4 +96,46 @@ public interface GameState<Move, GS extends GameState<Move, GS>> {
 	void makeChanceMove() throws IllegalStateException;
 
 	GS clone();
+
+	/**
+	 * Optional Zobrist hash of the game state, needed for sharing statistics among transposed game states in
+	 * MonteCarloTreeSearch. Equal game states must have equal hashes, and the player to move must be part of the
+	 * hash. Implementations are expected to update the hash incrementally as moves are made.
+	 * @return 64-bit hash of the game state.
+	 * @throws UnsupportedOperationException if the game state does not support hashing.
+	 */
+	default long zobristHash() throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("Zobrist hashing not supported by " + getClass().getName());
+	}
+
+	/**
+	 * Optional indexed view of the outcomes of a chance move, through which MonteCarloTreeSearch creates the child
+	 * nodes of a chance node only for the outcomes sampled, instead of all the states of nextChanceStatesWithProbs().
+	 * @return probabilities of the outcomes, summing to one, indexed as makeChanceOutcome() takes them; null if not
+	 *   supported.
+	 * @throws IllegalStateException if current player is not 0
+	 */
+	default double[] chanceOutcomeProbs() throws IllegalStateException {
+		return null;
+	}
+
+	/**
+	 * Make the chance move with the given outcome, if chanceOutcomeProbs() is supported.
+	 * @param outcome index of the outcome into the probabilities returned by chanceOutcomeProbs().
+	 * @throws IllegalStateException if current player is not 0
+	 * @throws UnsupportedOperationException if indexed outcomes are not supported.
+	 */
+	default void makeChanceOutcome(int outcome) throws IllegalStateException, UnsupportedOperationException {
+		throw new UnsupportedOperationException("Indexed chance outcomes not supported by " + getClass().getName());
+	}
+
+	/**
+	 * Optional prior probabilities of the possible moves, e.g. from a heuristic or a trained policy, for selection
+	 * policies that weight exploration by them, such as SelectionPolicy.puct(). Called once per expanded node.
+	 * @param moves the moves returned by possibleMoves().
+	 * @return probabilities of the moves, in the same order, summing to one; null for uniform probabilities.
+	 */
+	default double[] movePriors(List<Move> moves) {
+		return null;
+	}
 }
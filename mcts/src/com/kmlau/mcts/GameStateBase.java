@@ -37,17 +37,20 @@ import java.util.ArrayList;
  */
 public abstract class GameStateBase<Move, GS extends GameStateBase<Move, GS>> implements GameState<Move, GS> {
 	protected abstract class CachedValue<T> {
-		private T val;
+		// Volatile for safe publication when threads of a parallel search read the same state.
+		private volatile T val;
 
 		protected CachedValue() {
+			if (cachedValues == null) cachedValues = new ArrayList<>();
 			cachedValues.add(this);
 		}
 
 		protected abstract T compute();
 
 		public T get() {
-			if (val == null) val = compute();
-			return val;
+			T v = val;
+			if (v == null) val = v = compute();
+			return v;
 		}
 
 		public boolean populated() {
@@ -58,6 +61,7 @@ public abstract class GameStateBase<Move, GS extends GameStateBase<Move, GS>> im
 		 * If src is not immutable, Subclass needs to override for deep copying src.
 		 * @param src
 		 */
+		@SuppressWarnings("unchecked")
 		protected void copy(Object src) {
 			val = (T) src;
 		}
@@ -67,7 +71,8 @@ public abstract class GameStateBase<Move, GS extends GameStateBase<Move, GS>> im
 		}
 	}
 
-	private final ArrayList<CachedValue<?>> cachedValues = new ArrayList<>();
+	// Allocated on the first CachedValue only, so that states without any stay cheap to create and clone.
+	private ArrayList<CachedValue<?>> cachedValues;
 
 	/**
 	 * Subclass to implement logic to clone this, minus dealing with any CachedValue<T> instance variables.
@@ -91,14 +96,31 @@ public abstract class GameStateBase<Move, GS extends GameStateBase<Move, GS>> im
 	 */
 	protected abstract void makeChanceMoveInternal() throws IllegalStateException;
 
-	private void clearCachedValues() {
+	/**
+	 * Subclass supporting indexed chance outcomes to implement the logic to make the chance move with the given
+	 * outcome, minus dealing with any CachedValue<T> instance variables.
+	 *
+	 * @param outcome index into the probabilities returned by chanceOutcomeProbs().
+	 */
+	protected void makeChanceOutcomeInternal(int outcome) throws IllegalStateException, UnsupportedOperationException {
+		throw new UnsupportedOperationException("Indexed chance outcomes not supported by " + getClass().getName());
+	}
+
+	/**
+	 * Clear all CachedValue instance variables. Subclass taking back moves, e.g. in UndoableGameState.unmakeMove(),
+	 * should call this.
+	 */
+	protected final void clearCachedValues() {
+		if (cachedValues == null) return;
 		for (CachedValue<?> v : cachedValues) {
 			v.clear();
 		}
 	}
 
+	@SuppressWarnings("unchecked")
 	public final GS clone() {
 		GameStateBase<Move, GS> s = cloneInternal();
+		if (cachedValues == null) return (GS) s;
 		// Copy populated cachedValues.
 		for (int i = 0; i < s.cachedValues.size(); ++i) {
 			final Object v = cachedValues.get(i).val;
@@ -112,6 +134,11 @@ public abstract class GameStateBase<Move, GS extends GameStateBase<Move, GS>> im
 		clearCachedValues();
 	}
 
+	public final void makeChanceOutcome(int outcome) throws IllegalStateException, UnsupportedOperationException {
+		makeChanceOutcomeInternal(outcome);
+		clearCachedValues();
+	}
+
 	public final void makeMove(Move m) throws IllegalStateException, IllegalArgumentException {
 		makeMoveInternal(m);
 		clearCachedValues();
@@ -0,0 +1,74 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+/**
+ * Lookup tables of the functions of visit counts evaluated in selection, which is run at every level of the search
+ * tree in every iteration. The tables cover the visit counts of all but the busiest nodes, and are small enough to
+ * stay in cache.
+ *
+ * @author K M Lau
+ */
+final class MathTables {
+	private static final int SIZE = 1 << 12;
+
+	private static final double[] LOG = new double[SIZE];
+	private static final double[] SQRT = new double[SIZE];
+	private static final double[] INVERSE_SQRT = new double[SIZE];
+
+	static {
+		for (int n = 1; n < SIZE; ++n) {
+			LOG[n] = Math.log(n);
+			SQRT[n] = Math.sqrt(n);
+			INVERSE_SQRT[n] = 1 / SQRT[n];
+		}
+		INVERSE_SQRT[0] = Double.POSITIVE_INFINITY;
+		LOG[0] = Double.NEGATIVE_INFINITY;
+	}
+
+	private MathTables() {
+	}
+
+	/**
+	 * @param n a non-negative number.
+	 */
+	static double log(int n) {
+		return n < SIZE ? LOG[n] : Math.log(n);
+	}
+
+	/**
+	 * @param n a non-negative number.
+	 */
+	static double sqrt(int n) {
+		return n < SIZE ? SQRT[n] : Math.sqrt(n);
+	}
+
+	/**
+	 * @param n a non-negative number.
+	 * @return 1 / sqrt(n).
+	 */
+	static double inverseSqrt(int n) {
+		return n < SIZE ? INVERSE_SQRT[n] : 1 / Math.sqrt(n);
+	}
+}
@@ -23,53 +23,1001 @@
 
 package com.kmlau.mcts;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MonteCarloTreeSearch<Move, GS extends GameState<Move, GS>> {
+	/**
+	 * What to do when the search tree reaches the memory budget.
+	 */
+	public enum MemoryLimitPolicy {
+		/** Stop expanding the tree; playouts go on from its leaves. */
+		STOP_EXPANDING,
+		/** Remove the subtrees below the least visited nodes, and keep expanding. */
+		PRUNE,
+	}
+
+	// How many levels below the previous root to look for the current game state when reusing the search tree.
+	private static final int TREE_REUSE_MAX_DEPTH = 4;
+
+	// Rough heap footprint of a search tree node: the Node object, its slot in the parent's child list and a small
+	// game state.
+	private static final int ESTIMATED_BYTES_PER_NODE = 200;
+
+	// When pruning, remove nodes until the tree is down to this fraction of the memory budget.
+	private static final double PRUNE_TO_FRACTION = 0.75;
+
+	private static final SearchEventSink EVENT_SINK = SearchEventSink.load();
+
 	private Node<Move, GS> searchTreeRoot;
+	private SearchTreeNode<Move, GS> searchTree;
+	private SearchStats<Move> searchStats;
+	// Contexts of the workers of the search in progress.
+	private List<SearchContext<Move, GS>> searchContexts;
+	private SearchBudget searchBudget;
+
+	private int workerCount = 1;
+	private boolean sharedTree = false;
+	private double virtualLoss = 1;
+	private int playoutsPerLeaf = 1;
+	private boolean treeReuse = false;
+	private TranspositionTable transpositionTable;
+	private NodeArena<Move, GS> nodeArena;
+	private boolean openLoop = false;
+	private int maxTreeNodes = Integer.MAX_VALUE;
+	private MemoryLimitPolicy memoryLimitPolicy = MemoryLimitPolicy.STOP_EXPANDING;
+	private SelectionPolicy selectionPolicy = SelectionPolicy.uct();
+	private int raveEquivalence = 0;
+	private double wideningCoefficient = 0;
+	private double wideningExponent;
+	private double chanceWideningCoefficient = 0;
+	private double chanceWideningExponent;
+	private int rolloutDepth = Integer.MAX_VALUE;
+	private StateEvaluator<GS> evaluator;
+	private boolean solver = false;
+	private double solverWinUtility;
+	private EndgameSolver<GS> endgameSolver;
+	private OpeningBook<Move, GS> openingBook;
+	private ForkJoinPool workerPool;
+
+	// Background search while the opponent thinks.
+	private Thread ponderThread;
+	private SearchBudget ponderBudget;
+	private Node<Move, GS> ponderRoot;
+	// Whether the most recent search tree, grown by pondering or loaded from a file, is yet to be reused by the
+	// next search.
+	private boolean reusableTreeAvailable = false;
+
+	private SearchScheduler scheduler;
+	// Asynchronous search in progress; guarded by this.
+	private AsyncSearch asyncSearch;
+
+	/**
+	 * Enable root parallel search: each of the given number of workers grows its own search tree from a clone of
+	 * the game state, and the statistics of the root children are merged by move when time is up.
+	 * This replaces any tree parallelism set before.
+	 * @param workers number of worker threads; 1 (the default) searches on the calling thread only.
+	 */
+	public void setRootParallelism(int workers) {
+		setWorkerCount(workers);
+		sharedTree = false;
+	}
+
+	/**
+	 * Enable tree parallel search: the given number of workers grow one shared search tree, using virtual loss to
+	 * spread over different paths. Uses less memory than root parallelism for the same number of playouts, and
+	 * grows a deeper tree. This replaces any root parallelism set before.
+	 * @param workers number of worker threads; 1 (the default) searches on the calling thread only.
+	 */
+	public void setTreeParallelism(int workers) {
+		setWorkerCount(workers);
+		sharedTree = true;
+	}
+
+	/**
+	 * @param virtualLoss score provisionally deducted from each node on the path of an in-flight playout in tree
+	 *   parallel search. Should be of the scale of the game utilities. Defaults to 1.
+	 */
+	public void setVirtualLoss(double virtualLoss) {
+		if (virtualLoss < 0) {
+			throw new IllegalArgumentException("Virtual loss must not be negative: " + virtualLoss);
+		}
+		this.virtualLoss = virtualLoss;
+	}
+
+	/**
+	 * Enable leaf parallel playouts: every expanded node is played out the given number of times concurrently, and
+	 * the mean utilities are back propagated once, counting as that many visits. Worthwhile for games with long
+	 * playouts. Applies to sequential and root parallel search, in which the tree keeps a single writer; ignored in
+	 * tree parallel search.
+	 * @param playouts number of playouts per leaf; 1 (the default) plays out once on the searching thread.
+	 */
+	public void setLeafParallelism(int playouts) {
+		if (playouts < 1) {
+			throw new IllegalArgumentException("Playouts per leaf must be positive: " + playouts);
+		}
+		if (playouts != playoutsPerLeaf) {
+			shutdown();
+			playoutsPerLeaf = playouts;
+		}
+	}
+
+	/**
+	 * Enable reuse of the search tree across consecutive searches. When the game state given to searchGoodMove() is
+	 * found among the first few levels below the previous search tree root, e.g. after our move and the opponent's
+	 * reply or a chance move, the search continues from that subtree with its statistics, and the rest of the old
+	 * tree is released.
+	 */
+	public void setTreeReuse(boolean treeReuse) {
+		this.treeReuse = treeReuse;
+	}
+
+	/**
+	 * Enable a transposition table, through which nodes of the same game state reached by different move orders
+	 * share statistics. The game state class must implement GameState.zobristHash(). The table is kept across
+	 * searches.
+	 * @param capacity maximum number of game states in the table; 0 disables the transposition table.
+	 */
+	public void setTranspositionTableCapacity(int capacity) {
+		transpositionTable = capacity > 0 ? new TranspositionTable(capacity) : null;
+	}
+
+	/**
+	 * Store the search tree in a node arena: primitive arrays allocated in large chunks and reused across searches,
+	 * instead of a Node object per node. Reduces garbage collection and cache misses for trees of millions of
+	 * nodes. The search tree is then inspected through getRecentSearchTree(); getRecentSearchTreeRoot() returns
+	 * null. Supports sequential search only, without tree reuse.
+	 */
+	public void setNodeArena(boolean useNodeArena) {
+		nodeArena = useNodeArena ? new NodeArena<Move, GS>() : null;
+	}
+
+	/**
+	 * Grow open-loop search trees: nodes stand for sequences of moves and hold no game state, only their causation
+	 * move and statistics, a few dozen bytes. Each iteration replays the moves from a copy of the root game state,
+	 * drawing chance outcomes afresh, so a node sums up every game state its moves may lead to. Suits games with
+	 * chance moves, in which the game state of a node would be one sample anyway; in games without chance it trades
+	 * replaying moves for memory. Only player moves have nodes, selected among those legal in the game state reached.
+	 * The search tree is inspected through getRecentSearchTree(), where only the root has a game state;
+	 * getRecentSearchTreeRoot() returns null. Supports sequential search only, stops expanding at the node limit, and
+	 * ignores tree reuse, the transposition table, RAVE, the solvers and progressive widening. Selection policies
+	 * that use squared scores are not supported, and priors are taken as uniform.
+	 */
+	public void setOpenLoop(boolean enabled) {
+		openLoop = enabled;
+	}
+
+	/**
+	 * Bound the size of the search tree. In root parallel search the budget is split evenly among the workers'
+	 * trees.
+	 * @param maxNodes maximum number of nodes in the search tree.
+	 */
+	public void setMaxTreeNodes(int maxNodes) {
+		if (maxNodes < 1) {
+			throw new IllegalArgumentException("Maximum node count must be positive: " + maxNodes);
+		}
+		maxTreeNodes = maxNodes;
+	}
+
+	/**
+	 * Bound the size of the search tree by an estimate of its heap footprint, about 200 bytes per node.
+	 * @param maxBytes memory budget in bytes.
+	 */
+	public void setMaxTreeBytes(long maxBytes) {
+		setMaxTreeNodes((int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / ESTIMATED_BYTES_PER_NODE)));
+	}
+
+	/**
+	 * @param policy what to do when the search tree reaches the memory budget. Defaults to STOP_EXPANDING. A node
+	 *   arena always stops expanding.
+	 */
+	public void setMemoryLimitPolicy(MemoryLimitPolicy policy) {
+		memoryLimitPolicy = policy;
+	}
+
+	/**
+	 * @param policy rule for selecting the child to descend to in the search tree, with its exploration constant.
+	 *   Defaults to SelectionPolicy.uct(). Takes effect from the next search.
+	 */
+	public void setSelectionPolicy(SelectionPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("Selection policy must not be null.");
+		}
+		selectionPolicy = policy;
+	}
+
+	/**
+	 * Enable RAVE (rapid action value estimation): each node also keeps all-moves-as-first statistics, counting
+	 * every playout below its parent in which its move was made later on by the same player, and selection blends
+	 * them into the node's mean score with weight sqrt(k / (3 * visits + k)). Speeds up convergence in games where
+	 * the value of a move depends little on when it is made. Moves are matched by equals(). Takes effect from the
+	 * next search.
+	 * @param k number of visits at which the node's own statistics and the AMAF statistics weigh the same; 0 (the
+	 *   default) disables RAVE.
+	 */
+	public void setRaveEquivalence(int k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("RAVE equivalence must not be negative: " + k);
+		}
+		raveEquivalence = k;
+	}
+
+	/**
+	 * Cut playouts short: after the given number of moves, including chance moves, a playout stops and is scored by
+	 * the evaluator instead of the utilities of the terminated game. Gives more playouts per second, and less noisy
+	 * results if the evaluator is good, in games with long playouts. Takes effect from the next search.
+	 * @param depth number of moves after which playouts stop; 0 scores the expanded nodes by the evaluator alone.
+	 * @param evaluator estimator of the utilities at the game state where a playout stops; null (the default) plays
+	 *   out to the end of the game.
+	 */
+	public void setRolloutDepth(int depth, StateEvaluator<GS> evaluator) {
+		if (depth < 0) {
+			throw new IllegalArgumentException("Rollout depth must not be negative: " + depth);
+		}
+		this.rolloutDepth = evaluator != null ? depth : Integer.MAX_VALUE;
+		this.evaluator = evaluator;
+	}
+
+	/**
+	 * Enable progressive widening: a node with n visits has children created for at most ceil(c * n ^ a) of its
+	 * moves, in descending order of prior if the selection policy uses priors, else in random order. Focuses the
+	 * search on fewer moves in games with many moves per turn. Chance nodes are not limited. Takes effect from the
+	 * next search.
+	 * @param coefficient the coefficient c; 0 (the default) disables progressive widening.
+	 * @param exponent the exponent a, typically between 0.25 and 0.5.
+	 */
+	public void setProgressiveWidening(double coefficient, double exponent) {
+		if (!(coefficient >= 0) || !(exponent >= 0)) {
+			throw new IllegalArgumentException(
+					"Progressive widening parameters must not be negative: " + coefficient + ", " + exponent);
+		}
+		wideningCoefficient = coefficient;
+		wideningExponent = exponent;
+	}
 
-	private Node<Move, GS> selectAndExpand(Node<Move, GS> root) {
+	/**
+	 * Enable double progressive widening of chance nodes: a chance node with n visits has children created for at
+	 * most ceil(c * n ^ a) chance outcomes, and once it has that many, the outcomes are drawn among those of its
+	 * children. Outcomes are drawn by GameState.makeChanceMove() as they are needed, rather than all listed by
+	 * nextChanceStatesWithProbs() at expansion, unless the game state indexes its chance outcomes. Keeps the memory
+	 * and time spent on chance nodes with many outcomes in proportion to their visits. Not supported with a node
+	 * arena. Takes effect from the next search.
+	 * @param coefficient the coefficient c; 0 (the default) disables double progressive widening.
+	 * @param exponent the exponent a, typically between 0.25 and 0.5.
+	 */
+	public void setChanceWidening(double coefficient, double exponent) {
+		if (!(coefficient >= 0) || !(exponent >= 0)) {
+			throw new IllegalArgumentException(
+					"Chance widening parameters must not be negative: " + coefficient + ", " + exponent);
+		}
+		chanceWideningCoefficient = coefficient;
+		chanceWideningExponent = exponent;
+	}
+
+	/**
+	 * Enable MCTS-Solver: nodes of terminated game states are proven to be worth their utilities, and the proofs
+	 * propagate up by the minimax rule. A player node is proven once a child is a proven win for the player to move,
+	 * or once all its children are proven; chance nodes are never proven. Proven losses are no longer selected,
+	 * proven nodes are scored by their proven utilities instead of being played out, and the search stops as soon
+	 * as the root is proven, with the best move proven. Meant for games of perfect information whose winner gets a
+	 * known top utility, such as Connect Four. Not supported with a node arena. Takes effect from the next search.
+	 * @param enabled whether to enable the solver; disabled by default.
+	 * @param winUtility utility of a won game to the winner, the highest utility of the game, e.g. 1 for Connect Four.
+	 */
+	public void setSolver(boolean enabled, double winUtility) {
+		if (enabled && Double.isNaN(winUtility)) {
+			throw new IllegalArgumentException("Win utility must be a number");
+		}
+		solver = enabled;
+		solverWinUtility = winUtility;
+	}
+
+	/**
+	 * Solve game states close to the end of the game exactly: every new node whose game state the endgame solver can
+	 * solve is valued at the solved utilities instead of being expanded and played out. In solver mode, see
+	 * setSolver(), the solved values are proven and propagate up the tree. The root is always searched. Not supported
+	 * with a node arena. Takes effect from the next search.
+	 * @param solver endgame solver, which must be safe to call from several threads with parallel search; null (the
+	 *   default) for none.
+	 */
+	public void setEndgameSolver(EndgameSolver<GS> solver) {
+		endgameSolver = solver;
+	}
+
+	/**
+	 * Answer game states found in the opening book with the move of the book, at once and without searching. The
+	 * most recent search tree and statistics are left as they were.
+	 * @param book opening book; null (the default) for none.
+	 */
+	public void setOpeningBook(OpeningBook<Move, GS> book) {
+		openingBook = book;
+	}
+
+	private void setWorkerCount(int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("Worker count must be positive: " + workers);
+		}
+		if (workers != workerCount) {
+			shutdown();
+			workerCount = workers;
+		}
+	}
+
+	/**
+	 * Release worker threads held for parallel search, if any. The search engine remains usable and will start
+	 * new threads on demand.
+	 */
+	public void shutdown() {
+		stopPondering();
+		if (workerPool != null) {
+			workerPool.shutdown();
+			workerPool = null;
+		}
+	}
+
+	private ForkJoinPool workerPool() {
+		if (workerPool == null) {
+			workerPool = new ForkJoinPool(sharedTree ? workerCount : workerCount * playoutsPerLeaf);
+		}
+		return workerPool;
+	}
+
+	/**
+	 * Create the context of a worker of the search in progress.
+	 * @param treeContext context of another worker growing the same search tree, or null if there is none yet.
+	 * @param root root of the search tree, or null if it is stored in a node arena.
+	 * @param maxNodes maximum number of nodes in the search tree.
+	 */
+	private SearchContext<Move, GS> newSearchContext(SearchContext<Move, GS> treeContext,
+			Node<Move, GS> root, int maxNodes) {
+		SearchContext<Move, GS> ctx = new SearchContext<>();
+		ctx.transpositionTable = transpositionTable;
+		ctx.selectionPolicy = selectionPolicy;
+		ctx.squaredScores = selectionPolicy.usesSquaredScores();
+		ctx.raveEquivalence = raveEquivalence;
+		ctx.wideningCoefficient = wideningCoefficient;
+		ctx.wideningExponent = wideningExponent;
+		ctx.chanceWideningCoefficient = chanceWideningCoefficient;
+		ctx.chanceWideningExponent = chanceWideningExponent;
+		ctx.rolloutDepth = rolloutDepth;
+		ctx.evaluator = evaluator;
+		ctx.solver = solver && nodeArena == null;
+		ctx.solverWinUtility = solverWinUtility;
+		ctx.endgameSolver = nodeArena == null ? endgameSolver : null;
+		ctx.maxTreeNodes = Math.min(maxNodes, searchBudget.maxTreeNodes());
+		ctx.budget = searchBudget;
+		ctx.pruneAtNodeLimit = memoryLimitPolicy == MemoryLimitPolicy.PRUNE;
+		if (treeContext != null) {
+			ctx.treeNodeCount = treeContext.treeNodeCount;
+			ctx.pruning = treeContext.pruning;
+		} else {
+			ctx.treeNodeCount = new AtomicInteger(root != null ? root.subtreeSize() : 1);
+			ctx.pruning = new AtomicBoolean();
+		}
+		searchContexts.add(ctx);
+		return ctx;
+	}
+
+	/**
+	 * Prune the search tree if it has reached the memory budget under the PRUNE policy, unless another worker of
+	 * the same tree is at it.
+	 */
+	private void pruneIfAtNodeLimit(Node<Move, GS> root, SearchContext<Move, GS> ctx) {
+		if (ctx.pruneAtNodeLimit && ctx.atNodeLimit() && ctx.pruning.compareAndSet(false, true)) {
+			try {
+				final int pruned = root.pruneLeastVisited(
+						ctx.treeNodeCount.get() - (int) (ctx.maxTreeNodes * PRUNE_TO_FRACTION));
+				ctx.treeNodeCount.addAndGet(-pruned);
+				ctx.nodesPruned += pruned;
+			} finally {
+				ctx.pruning.set(false);
+			}
+		}
+	}
+
+	private Node<Move, GS> selectAndExpand(Node<Move, GS> root, SearchContext<Move, GS> ctx) {
 		Node<Move, GS> node = root;
+		int depth = 0;
 		while (!node.unexpanded()) {
-			Node<Move, GS> newNode = node.selectChild();
+			Node<Move, GS> newNode = node.selectChild(ctx);
 			if (newNode == null) {
+				ctx.countDepth(depth);
+				ctx.endPhase(SearchContext.SELECTION);
 				return node;
 			}
 			node = newNode;
+			++depth;
 		}
-		Node<Move, GS> expanded = node.expand();
+		ctx.endPhase(SearchContext.SELECTION);
+		Node<Move, GS> expanded = node.expand(ctx);
+		ctx.endPhase(SearchContext.EXPANSION);
+		ctx.countDepth(expanded != null ? depth + 1 : depth);
 		return expanded != null ? expanded : node;
 	}
 
+	private Node<Move, GS> selectAndExpandWithVirtualLoss(Node<Move, GS> root, SearchContext<Move, GS> ctx) {
+		Node<Move, GS> node = root;
+		int depth = 0;
+		node.addVirtualLoss(virtualLoss);
+		while (!node.unexpanded()) {
+			Node<Move, GS> newNode = node.selectChild(ctx);
+			if (newNode == null) {
+				ctx.countDepth(depth);
+				ctx.endPhase(SearchContext.SELECTION);
+				return node;
+			}
+			node = newNode;
+			++depth;
+			node.addVirtualLoss(virtualLoss);
+		}
+		ctx.endPhase(SearchContext.SELECTION);
+		Node<Move, GS> expanded = node.expand(ctx);
+		ctx.endPhase(SearchContext.EXPANSION);
+		if (expanded == null) {
+			// Terminal node, or claimed for expansion by another thread: play out from here.
+			ctx.countDepth(depth);
+			return node;
+		}
+		ctx.countDepth(depth + 1);
+		expanded.addVirtualLoss(virtualLoss);
+		return expanded;
+	}
+
+	private void runPlayouts(Node<Move, GS> root, int maxNodes) {
+		final SearchContext<Move, GS> ctx = newSearchContext(null, root, maxNodes);
+		if (playoutsPerLeaf > 1) {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			final SearchContext<Move, GS>[] leafPlayoutContexts = new SearchContext[playoutsPerLeaf - 1];
+			for (int i = 0; i < leafPlayoutContexts.length; ++i) {
+				leafPlayoutContexts[i] = new SearchContext<>();
+				leafPlayoutContexts[i].transpositionTable = transpositionTable;
+				leafPlayoutContexts[i].rolloutDepth = rolloutDepth;
+				leafPlayoutContexts[i].evaluator = evaluator;
+				searchContexts.add(leafPlayoutContexts[i]);
+			}
+			ctx.leafPlayoutContexts = leafPlayoutContexts;
+		}
+		while (searchBudget.proceed(ctx, root, playoutsPerLeaf)) {
+			runIteration(root, ctx, playoutsPerLeaf);
+		}
+	}
+
+	/**
+	 * Run an iteration of sequential search.
+	 * @param playouts number of playouts of the expanded node, concurrent if more than one.
+	 */
+	private void runIteration(Node<Move, GS> root, SearchContext<Move, GS> ctx, int playouts) {
+		pruneIfAtNodeLimit(root, ctx);
+		ctx.startIteration();
+
+		// Select the best unexpanded node and expand it.
+		Node<Move, GS> node = selectAndExpand(root, ctx);
+		ctx.playouts += playouts;
+
+		// Play it out.
+		double[] utilities = playouts > 1 ? simulateConcurrently(node, ctx) : node.simulate(ctx);
+		ctx.endPhase(SearchContext.PLAYOUT);
+		node.backPropagate(utilities, playouts, ctx);
+		ctx.endPhase(SearchContext.BACK_PROPAGATION);
+	}
+
+	/**
+	 * Play out a node playoutsPerLeaf times, on the worker pool and the calling thread.
+	 * @return the mean utilities.
+	 */
+	private double[] simulateConcurrently(final Node<Move, GS> node, final SearchContext<Move, GS> ctx) {
+		List<ForkJoinTask<double[]>> tasks = new ArrayList<>(playoutsPerLeaf - 1);
+		for (final SearchContext<Move, GS> leafPlayoutContext : ctx.leafPlayoutContexts) {
+			tasks.add(workerPool().submit(() -> node.simulate(leafPlayoutContext)));
+		}
+		double[] mean = node.simulate(ctx).clone();
+		for (ForkJoinTask<double[]> task : tasks) {
+			double[] utilities = task.join();
+			for (int p = 0; p < mean.length; ++p) mean[p] += utilities[p];
+		}
+		for (int p = 0; p < mean.length; ++p) mean[p] /= playoutsPerLeaf;
+		return mean;
+	}
+
+	/**
+	 * @param initialRoot search tree for the first worker; the other workers start with new trees.
+	 */
+	private Node<Move, GS> searchRootParallel(final Node<Move, GS> initialRoot) {
+		final GS gameState = initialRoot.gameState();
+		List<ForkJoinTask<Node<Move, GS>>> tasks = new ArrayList<>();
+		for (int i = 0; i < workerCount; ++i) {
+			final GS workerState = i > 0 ? gameState.clone() : null;
+			tasks.add(workerPool().submit(() -> {
+				Node<Move, GS> root = workerState != null ? new Node<>(null, workerState, null) : initialRoot;
+				runPlayouts(root, Math.max(1, maxTreeNodes / workerCount));
+				// A proven root settles the move; the other workers need not go on.
+				if (root.provenUtilities() != null) searchBudget.cancel();
+				return root;
+			}));
+		}
+		Node<Move, GS> merged = null;
+		Node<Move, GS> proven = null;
+		for (ForkJoinTask<Node<Move, GS>> task : tasks) {
+			Node<Move, GS> root = task.join();
+			if (root.provenUtilities() != null && proven == null) proven = root;
+			if (root.unexpanded() || proven != null) continue;
+			if (merged == null) {
+				merged = root;
+				continue;
+			}
+			merged.mergeStatistics(root);
+			for (Node<Move, GS> child : root.getChildren()) {
+				Node<Move, GS> matched = null;
+				for (Node<Move, GS> mergedChild : merged.getChildren()) {
+					if (mergedChild.causationMove().equals(child.causationMove())) {
+						matched = mergedChild;
+						break;
+					}
+				}
+				if (matched != null) {
+					matched.mergeStatistics(child);
+				} else {
+					// Children are created as they are first visited, so the merged tree may not have it yet.
+					merged.adoptChild(child);
+				}
+			}
+		}
+		if (proven != null) return proven;
+		return merged != null ? merged : initialRoot;
+	}
+
+	private Node<Move, GS> searchTreeParallel(final Node<Move, GS> root) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		final SearchContext<Move, GS> treeContext = newSearchContext(null, root, maxTreeNodes);
+		for (int i = 0; i < workerCount; ++i) {
+			final SearchContext<Move, GS> ctx = i > 0 ? newSearchContext(treeContext, root, maxTreeNodes) : treeContext;
+			tasks.add(workerPool().submit(() -> {
+				while (searchBudget.proceed(ctx, root, 1)) {
+					pruneIfAtNodeLimit(root, ctx);
+					ctx.startIteration();
+					Node<Move, GS> node = selectAndExpandWithVirtualLoss(root, ctx);
+					++ctx.playouts;
+					double[] utilities = node.simulate(ctx);
+					ctx.endPhase(SearchContext.PLAYOUT);
+					node.backPropagateWithVirtualLoss(utilities, virtualLoss, ctx);
+					ctx.endPhase(SearchContext.BACK_PROPAGATION);
+				}
+			}));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		return root;
+	}
+
+	/**
+	 * Keep growing a search tree for the given game state on a background thread, typically the game state after
+	 * our move while the opponent thinks, until stopPondering() or the next search. The next search continues from
+	 * the subtree of the game state it is given, if found in the first levels of the tree, whether tree reuse is
+	 * enabled or not. Pondering grows a single tree, in parallel if tree parallelism is set, within the memory
+	 * budget set by setMaxTreeNodes(). Any previous pondering is stopped first.
+	 * @param gameState game state to ponder, which may pertain to a chance node. The caller may go on to change it.
+	 */
+	public void ponder(GS gameState) {
+		if (nodeArena != null || openLoop) {
+			throw new IllegalStateException("Pondering is not supported with a node arena or open-loop trees.");
+		}
+		checkNoAsyncSearch();
+		stopPondering();
+		reusableTreeAvailable = false;
+		ponderRoot = new Node<>(null, gameState.clone(), null);
+		ponderBudget = new SearchBudget(SearchLimits.untilCancelled(), 1);
+		searchBudget = ponderBudget;
+		searchTreeRoot = null;
+		searchTree = null;
+		final Node<Move, GS> root = ponderRoot;
+		ponderThread = new Thread(() -> {
+			final Object event = EVENT_SINK.begin();
+			growSearchTree(root, false);
+			EVENT_SINK.commit(event, searchStats);
+		}, "mcts-ponder");
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+
+	/**
+	 * Stop pondering, if in progress, and wait for the background search to finish. The pondered tree becomes the
+	 * most recent search tree.
+	 */
+	public void stopPondering() {
+		if (ponderThread == null) return;
+		ponderBudget.cancel();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				ponderThread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		ponderThread = null;
+		ponderBudget = null;
+		searchTreeRoot = ponderRoot;
+		searchTree = ponderRoot;
+		ponderRoot = null;
+		reusableTreeAvailable = true;
+	}
+
+	/**
+	 * Grow a search tree within the search budget, with the parallelism set.
+	 * @param rootParallel whether root parallelism, if set, may be used.
+	 * @return root of the grown tree, the given one unless the trees of root parallel workers were merged.
+	 */
+	private Node<Move, GS> growSearchTree(Node<Move, GS> root, boolean rootParallel) {
+		searchContexts = Collections.synchronizedList(new ArrayList<SearchContext<Move, GS>>());
+		if (workerCount > 1 && sharedTree) {
+			root = searchTreeParallel(root);
+		} else if (workerCount > 1 && rootParallel) {
+			root = searchRootParallel(root);
+		} else {
+			runPlayouts(root, maxTreeNodes);
+		}
+		searchStats = SearchStats.of(searchContexts, root, searchBudget.elapsedNanos());
+		return root;
+	}
+
+	/**
+	 * Search for the given time, without early stopping.
+	 */
 	public Move searchGoodMove(GS gameState, int timeMillisAllowed) {
+		return searchGoodMove(gameState, new SearchLimits.Builder()
+				.setTimeAllowed(timeMillisAllowed, TimeUnit.MILLISECONDS)
+				.setEarlyStopping(false)
+				.build());
+	}
+
+	/**
+	 * Search within the given limits.
+	 */
+	public Move searchGoodMove(GS gameState, SearchLimits limits) {
+		if (gameState.currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
+			throw new IllegalArgumentException("Game state pertains to a chance node. MCTS cannot compute best move.");
+		}
+		checkNoAsyncSearch();
+		stopPondering();
+		final Move bookMove = openingBook != null ? openingBook.lookup(gameState) : null;
+		if (bookMove != null) return bookMove;
+		final Object event = EVENT_SINK.begin();
+		searchBudget = new SearchBudget(limits, workerCount > 1 && !sharedTree && nodeArena == null ? workerCount : 1);
+		if (openLoop) {
+			final Move move = searchOpenLoop(gameState);
+			EVENT_SINK.commit(event, searchStats);
+			return move;
+		}
+		if (nodeArena != null) {
+			final Move move = searchInNodeArena(gameState);
+			EVENT_SINK.commit(event, searchStats);
+			return move;
+		}
+		Node<Move, GS> root = newSearchTreeRoot(gameState);
+		root = growSearchTree(root, true);
+		searchTreeRoot = root;
+		searchTree = root;
+		EVENT_SINK.commit(event, searchStats);
+		return bestMove(root);
+	}
+
+	/**
+	 * Start searching within the given limits on the scheduler set, or the common one, and return at once. The
+	 * search runs on a single tree regardless of the parallelism set: the scheduler spreads searches of different
+	 * games over its workers. Cancelling the returned future stops the search at its next check of the limits.
+	 * Another search may start once the future completes or is cancelled. Not supported with a node arena.
+	 * @param gameState game state to search; the caller may go on to change it.
+	 * @return future of the move found.
+	 */
+	public CompletableFuture<Move> searchAsync(GS gameState, SearchLimits limits) {
 		if (gameState.currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
 			throw new IllegalArgumentException("Game state pertains to a chance node. MCTS cannot compute best move.");
 		}
-		Node<Move, GS> root = new Node<>(null, gameState, null);
-		final long deadline = System.currentTimeMillis() + timeMillisAllowed;
+		if (nodeArena != null || openLoop) {
+			throw new IllegalStateException("Node arena and open-loop trees support synchronous search only.");
+		}
+		stopPondering();
+		final Move bookMove = openingBook != null ? openingBook.lookup(gameState) : null;
+		final AsyncSearch search;
+		synchronized (this) {
+			checkNoAsyncSearch();
+			if (bookMove != null) return CompletableFuture.completedFuture(bookMove);
+			searchBudget = new SearchBudget(limits, 1);
+			search = new AsyncSearch(newSearchTreeRoot(gameState));
+			asyncSearch = search;
+		}
+		try {
+			(scheduler != null ? scheduler : SearchScheduler.common()).submit(search);
+		} catch (RuntimeException e) {
+			search.abort(e);
+		}
+		return search.future;
+	}
+
+	/**
+	 * @param scheduler scheduler of asynchronous searches; null (the default) for the common one.
+	 */
+	public void setScheduler(SearchScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	private synchronized void checkNoAsyncSearch() {
+		if (asyncSearch != null) {
+			throw new IllegalStateException("An asynchronous search is in progress.");
+		}
+	}
 
-		while (System.currentTimeMillis() < deadline) {
-			// Select the best unexpanded node and expand it.
-			Node<Move, GS> node = selectAndExpand(root);
+	/**
+	 * @return root for a search of the given game state: its node in the previous search tree if reused, else a
+	 *   new one.
+	 */
+	private Node<Move, GS> newSearchTreeRoot(GS gameState) {
+		final boolean reusable = reusableTreeAvailable;
+		reusableTreeAvailable = false;
+		Node<Move, GS> root = treeReuse || reusable ? findReusableRoot(gameState) : null;
+		// A node valued by the endgame solver was never expanded, and the root is always searched.
+		if (root != null && root.unexpanded() && root.provenUtilities() != null) root = null;
+		if (root == null) {
+			// The tree owns its game states: the caller goes on to make moves on theirs, and playouts may be made in
+			// place on node states.
+			root = new Node<>(null, gameState.clone(), null);
+		}
+		searchTreeRoot = null;
+		searchTree = null;
+		return root;
+	}
 
-			// Play it out.
-			double[] utilities = node.simulate();
-			node.backPropagate(utilities);
+	/**
+	 * @return move to the child of the root with the highest mean score, or to the child proving the root if the
+	 *   root is proven. Proven losses are chosen last.
+	 */
+	private Move bestMove(Node<Move, GS> root) {
+		if (root.unexpanded()) {
+			throw new IllegalStateException("No playout was run within the search limits.");
+		}
+		final double[] provenUtilities = root.provenUtilities();
+		if (provenUtilities != null) {
+			for (Node<Move, GS> child : root.getChildren()) {
+				if (child.provenUtilities() == provenUtilities) return child.causationMove();
+			}
 		}
+		final int player = root.gameState().currentPlayer();
 		Node<Move, GS> best = null;
-		double maxScore = -Double.MAX_VALUE;
+		double maxScore = Double.NEGATIVE_INFINITY;
 		for (Node<Move, GS> child : root.getChildren()) {
 			if (child.visitCount() > 0) {
-				double score = child.sumScores() / child.visitCount();
+				double score = solver && child.provenLoss(player, solverWinUtility) ? -Double.MAX_VALUE
+						: child.sumScores() / child.visitCount();
 				if (score > maxScore) {
 					maxScore = score;
 					best = child;
 				}
 			}
 		}
-		searchTreeRoot = root;
+		if (best == null) {
+			throw new IllegalStateException("No playout was run within the search limits.");
+		}
 		return best.causationMove();
 	}
 
+	/**
+	 * An asynchronous search, run slice by slice by the scheduler. It works on its own tree and publishes it as the
+	 * most recent search tree when done, unless cancelled.
+	 */
+	private final class AsyncSearch implements SearchScheduler.Task {
+		final CompletableFuture<Move> future = new CompletableFuture<>();
+		private final Node<Move, GS> root;
+		private final SearchBudget budget = searchBudget;
+		private final List<SearchContext<Move, GS>> contexts = new ArrayList<>();
+		private final SearchContext<Move, GS> ctx;
+		private final Object event = EVENT_SINK.begin();
+
+		AsyncSearch(Node<Move, GS> root) {
+			this.root = root;
+			searchContexts = contexts;
+			ctx = newSearchContext(null, root, maxTreeNodes);
+			future.whenComplete((move, e) -> {
+				if (future.isCancelled()) {
+					budget.cancel();
+					release();
+				}
+			});
+		}
+
+		@Override
+		public boolean hasDeadline() {
+			return budget.hasDeadline();
+		}
+
+		@Override
+		public long deadlineNanos() {
+			return budget.deadlineNanos();
+		}
+
+		@Override
+		public boolean runSlice(long sliceEndNanos) {
+			while (budget.proceed(ctx, root, 1)) {
+				runIteration(root, ctx, 1);
+				if (ctx.iterationsGranted == 0 && System.nanoTime() - sliceEndNanos >= 0) return true;
+			}
+			final Move move;
+			try {
+				move = bestMove(root);
+			} catch (RuntimeException e) {
+				abort(e);
+				return false;
+			}
+			final SearchStats<Move> stats = SearchStats.of(contexts, root, budget.elapsedNanos());
+			synchronized (MonteCarloTreeSearch.this) {
+				if (asyncSearch != this) return false;
+				searchTreeRoot = root;
+				searchTree = root;
+				searchStats = stats;
+				asyncSearch = null;
+			}
+			EVENT_SINK.commit(event, stats);
+			future.complete(move);
+			return false;
+		}
+
+		@Override
+		public void abort(Throwable reason) {
+			budget.cancel();
+			release();
+			future.completeExceptionally(reason);
+		}
+
+		private void release() {
+			synchronized (MonteCarloTreeSearch.this) {
+				if (asyncSearch == this) asyncSearch = null;
+			}
+		}
+	}
+
+	private Move searchOpenLoop(GS gameState) {
+		if (workerCount > 1 || playoutsPerLeaf > 1 || nodeArena != null) {
+			throw new IllegalStateException("Open-loop trees support sequential search without a node arena only.");
+		}
+		if (selectionPolicy.usesSquaredScores()) {
+			throw new IllegalStateException("Open-loop trees do not keep squared scores for the selection policy.");
+		}
+		searchTreeRoot = null;
+		searchTree = null;
+		reusableTreeAvailable = false;
+		final OpenLoopNode<Move, GS> root = OpenLoopNode.newRoot(gameState.clone());
+		searchContexts = new ArrayList<>();
+		final SearchContext<Move, GS> ctx = newSearchContext(null, null, maxTreeNodes);
+		ctx.transpositionTable = null;
+		ctx.raveEquivalence = 0;
+		root.runPlayouts(ctx);
+		searchTree = root;
+		searchStats = SearchStats.of(searchContexts, root, searchBudget.elapsedNanos());
+		final Move move = root.bestMove();
+		if (move == null) {
+			throw new IllegalStateException("No playout was run within the search limits.");
+		}
+		return move;
+	}
+
+	private Move searchInNodeArena(GS gameState) {
+		if (workerCount > 1 || playoutsPerLeaf > 1) {
+			throw new IllegalStateException("Node arena supports sequential search only.");
+		}
+		searchTreeRoot = null;
+		searchTree = null;
+		nodeArena.reset();
+		final int root = nodeArena.newRoot(gameState.clone());
+		searchContexts = new ArrayList<>();
+		nodeArena.runPlayouts(root, newSearchContext(null, null, maxTreeNodes));
+		searchTree = nodeArena.view(root);
+		searchStats = SearchStats.of(searchContexts, searchTree, searchBudget.elapsedNanos());
+		final int best = nodeArena.bestChild(root);
+		if (best < 0) {
+			throw new IllegalStateException("No playout was run within the search limits.");
+		}
+		return nodeArena.causationMove(best);
+	}
+
+	/**
+	 * Look for the node of the given game state in the first levels of the previous search tree, and detach it
+	 * from its parent so the rest of the old tree can be garbage collected.
+	 * @return the node found, or null.
+	 */
+	private Node<Move, GS> findReusableRoot(GS gameState) {
+		if (searchTreeRoot == null) return null;
+		List<Node<Move, GS>> level = new ArrayList<>();
+		level.add(searchTreeRoot);
+		for (int depth = 0; depth <= TREE_REUSE_MAX_DEPTH && !level.isEmpty(); ++depth) {
+			List<Node<Move, GS>> nextLevel = new ArrayList<>();
+			for (Node<Move, GS> node : level) {
+				if (node.gameState().equals(gameState)) {
+					node.detachFromParent();
+					return node;
+				}
+				if (!node.unexpanded()) nextLevel.addAll(node.getChildren());
+			}
+			level = nextLevel;
+		}
+		return null;
+	}
+
+	/**
+	 * Save the most recent search tree to a file, e.g. to continue a long analysis after a restart by
+	 * loadSearchTree(). The visit counts and scores of the nodes are saved, with the sums of squared scores and the
+	 * RAVE statistics if the current selection policy and RAVE settings use them. Proofs of the solver are not saved.
+	 * @param codec encoding of the game states.
+	 * @throws IllegalStateException if there is no search tree, or it is stored in a node arena.
+	 */
+	public void saveSearchTree(Path file, TreeCodec<GS> codec) throws IOException {
+		final Node<Move, GS> root = searchTreeRoot;
+		if (root == null) {
+			throw new IllegalStateException("No search tree to save.");
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			TreeSerializer.write(root, codec, selectionPolicy.usesSquaredScores(), raveEquivalence > 0, channel);
+		}
+	}
+
+	/**
+	 * Load a search tree saved by saveSearchTree(), with the same game rules, and make it the most recent search
+	 * tree. The next search continues from its subtree of the game state searched, if found in the first levels of
+	 * the tree, whether tree reuse is enabled or not. Moves are created in the order of the current selection
+	 * policy, which should be the one the tree was grown with.
+	 * @param codec encoding of the game states.
+	 * @throws IOException if the file cannot be read, or does not hold a search tree of the game.
+	 */
+	public void loadSearchTree(Path file, TreeCodec<GS> codec) throws IOException {
+		checkNoAsyncSearch();
+		stopPondering();
+		final SearchContext<Move, GS> ctx = new SearchContext<>();
+		ctx.treeNodeCount = new AtomicInteger();
+		ctx.selectionPolicy = selectionPolicy;
+		ctx.chanceWideningCoefficient = chanceWideningCoefficient;
+		ctx.solver = solver;
+		ctx.solverWinUtility = solverWinUtility;
+		ctx.endgameSolver = endgameSolver;
+		final Node<Move, GS> root;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			root = TreeSerializer.read(codec, ctx, channel);
+		}
+		searchTreeRoot = root;
+		searchTree = root;
+		reusableTreeAvailable = true;
+	}
+
+	/**
+	 * @return root of the most recent search tree; null if the search tree was stored in a node arena.
+	 */
 	public Node<Move, GS> getRecentSearchTreeRoot() {
 		return searchTreeRoot;
 	}
+
+	/**
+	 * @return statistics of the most recent search.
+	 */
+	public SearchStats<Move> getRecentSearchStats() {
+		return searchStats;
+	}
+
+	/**
+	 * @return read-only view of the root of the most recent search tree, however it is stored.
+	 */
+	public SearchTreeNode<Move, GS> getRecentSearchTree() {
+		return searchTree;
+	}
 }
@@ -23,11 +23,18 @@
 
 package com.kmlau.mcts;
 
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A monte carlo tree node, with methods facilitating monte carlo tree search.
@@ -36,19 +43,56 @@ import java.util.Random;
  * @param <Move> The class representing allowed moves by a real non-chance-node player.
  * @param <GS> The game state class
  */
-public class Node<Move, GS extends GameState<Move, GS>> {
-	private static final double UCT_Coef = Math.sqrt(2);
+@SuppressWarnings("rawtypes")
+public class Node<Move, GS extends GameState<Move, GS>> implements SearchTreeNode<Move, GS> {
+	// Statistics are updated with atomic operations so that many threads can share one search tree.
+	private static final AtomicIntegerFieldUpdater<Node> VISIT_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(Node.class, "visitCount");
+	private static final AtomicLongFieldUpdater<Node> SUM_SCORES_BITS =
+			AtomicLongFieldUpdater.newUpdater(Node.class, "sumScoresBits");
+	private static final AtomicLongFieldUpdater<Node> SUM_SQUARED_SCORES_BITS =
+			AtomicLongFieldUpdater.newUpdater(Node.class, "sumSquaredScoresBits");
+	private static final AtomicIntegerFieldUpdater<Node> AMAF_VISIT_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(Node.class, "amafVisitCount");
+	private static final AtomicLongFieldUpdater<Node> AMAF_SUM_SCORES_BITS =
+			AtomicLongFieldUpdater.newUpdater(Node.class, "amafSumScoresBits");
+	private static final AtomicIntegerFieldUpdater<Node> EXPANSION_CLAIMED =
+			AtomicIntegerFieldUpdater.newUpdater(Node.class, "expansionClaimed");
 
-	private final Node<Move, GS> parent;
+	private Node<Move, GS> parent;
 	private final GS gameState;
 	private final Move causationMove;
-	private List<Node<Move, GS>> children;
+	// Children created so far, appended to as more are created; null if not expanded.
+	private volatile ChildList<Node<Move, GS>> children;
+	// Number of moves or chance outcomes, i.e. children once all are created; MAX_VALUE if the chance outcomes are
+	// drawn as needed.
+	private int childCapacity;
+	// The legal moves of a player node, and the order in which their children are created: by descending prior if
+	// the selection policy uses priors, else random.
+	private List<Move> moves;
+	private int[] creationOrder;
+	private float[] movePriors;
+	// Cumulative probabilities of the indexed outcomes of a chance node, and the children of the outcomes created.
+	private double[] cumulativeOutcomeProbs;
+	private AtomicReferenceArray<Node<Move, GS>> outcomeChildren;
+	// Children of a chance node of a game state without indexed outcomes, all created at expansion unless under
+	// double progressive widening, with which they are created as their outcomes are drawn.
 	private WeightedRandom<Node<Move, GS>> chanceNodeChildren;
 
-	private int visitCount = 0;
-	private double sumScores = 0;
-
-	private static final Random random = new Random();
+	private volatile int visitCount = 0;
+	// Raw long bits of the double sum, so that it can be updated by compare-and-set.
+	private volatile long sumScoresBits = 0;
+	// Kept only for selection policies that need the variance of the scores.
+	private volatile long sumSquaredScoresBits = 0;
+	// All-moves-as-first statistics: playouts below the parent in which the causation move was made later on by the
+	// same player. Kept only for RAVE.
+	private volatile int amafVisitCount = 0;
+	private volatile long amafSumScoresBits = 0;
+	private volatile int expansionClaimed = 0;
+	// Prior probability of the causation move, set when the parent is expanded.
+	private float prior;
+	// Game theoretic utilities of the game state, once proven by the solver; null until then.
+	private volatile double[] provenUtilities;
 
 	Node(Node<Move, GS> parent, GS gameState, Move move) {
 		this.parent = parent;
@@ -61,59 +105,340 @@ public class Node<Move, GS extends GameState<Move, GS>> {
 	}
 
 	boolean terminated() {
-		return children != null && children.isEmpty();
+		return children != null && childCapacity == 0;
+	}
+
+	/**
+	 * @return utilities of the game state with perfect play, as proven by the solver; null if not proven.
+	 */
+	double[] provenUtilities() {
+		return provenUtilities;
+	}
+
+	/**
+	 * @return whether this node is proven to be a win for another player than the given one.
+	 */
+	boolean provenLoss(int player, double winUtility) {
+		final double[] utilities = provenUtilities;
+		if (utilities == null) return false;
+		for (int p = 0; p < utilities.length; ++p) {
+			if (p != player && utilities[p] >= winUtility) return true;
+		}
+		return false;
 	}
 
+	@Override
 	public int visitCount() {
 		return visitCount;
 	}
 
+	@Override
 	public double sumScores() {
-		return sumScores;
+		return Double.longBitsToDouble(sumScoresBits);
+	}
+
+	double sumSquaredScores() {
+		return Double.longBitsToDouble(sumSquaredScoresBits);
+	}
+
+	int amafVisitCount() {
+		return amafVisitCount;
 	}
 
+	double amafSumScores() {
+		return Double.longBitsToDouble(amafSumScoresBits);
+	}
+
+	private void addScoreAtomically(double delta) {
+		addAtomically(SUM_SCORES_BITS, delta);
+	}
+
+	private void addAtomically(AtomicLongFieldUpdater<Node> sumBits, double delta) {
+		long bits;
+		do {
+			bits = sumBits.get(this);
+		} while (!sumBits.compareAndSet(this, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + delta)));
+	}
+
+	@Override
 	public Move causationMove() {
 		return causationMove;
 	}
 
+	@Override
 	public GS gameState() {
 		return gameState;
 	}
 
+	@Override
 	public List<Node<Move, GS>> getChildren() {
 		return children;
 	}
 
-	Node<Move, GS> expand() {
-		if (children != null) {
-			throw new IllegalStateException("Node has already been expanded.");
+	/**
+	 * Expand this node. The moves, or the chance outcomes, are listed, but their child nodes and game states are
+	 * created only as the children are first selected, except for chance nodes of game states without indexed
+	 * chance outcomes, which have all their children created at once.
+	 * @return a child to play out, the first one created; null if the game has terminated at this node, or if the
+	 *   node has been claimed for expansion already, e.g. by another thread in tree parallel search.
+	 */
+	Node<Move, GS> expand(SearchContext<Move, GS> ctx) {
+		if (ctx.atNodeLimit() || provenUtilities != null) {
+			// Out of memory budget, or nothing more to learn below; keep playing out from this node.
+			return null;
 		}
-		children = new ArrayList<>();
+		if (!EXPANSION_CLAIMED.compareAndSet(this, 0, 1)) {
+			return null;
+		}
+		listChildren(ctx);
+		if (childCapacity == 0) return null;
+		if (gameState.currentPlayer() != GameState.PLAYER_CHANCE_NODE) return createChild(0, ctx);
+		// Null if the node has just been pruned by another thread.
+		final double[] cumulativeProbs = cumulativeOutcomeProbs;
+		if (cumulativeProbs != null) return createOutcomeChild(sampleOutcome(cumulativeProbs), ctx);
+		final WeightedRandom<Node<Move, GS>> chanceChildren = chanceNodeChildren;
+		if (chanceChildren != null) return chanceChildren.get();
+		return childCapacity == Integer.MAX_VALUE ? drawChanceChild(ctx) : null;
+	}
+
+	/**
+	 * List the moves or the chance outcomes of a node claimed for expansion, creating no child but for chance
+	 * nodes of game states without indexed chance outcomes, unless under double progressive widening.
+	 */
+	private void listChildren(SearchContext<Move, GS> ctx) {
 		if (gameState.currentPlayer() != GameState.PLAYER_CHANCE_NODE) {
-			List<Move> possibleMoves = gameState.possibleMoves();
-			for (Move m : possibleMoves) {
-				GS nextState = gameState.clone();
-				nextState.makeMove(m);
-				children.add(new Node<>(this, nextState, m));
+			final List<Move> possibleMoves = gameState.possibleMoves();
+			final int n = possibleMoves.size();
+			final int[] order = new int[n];
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (ctx.selectionPolicy.usesPriors()) {
+				final double[] priors = gameState.movePriors(possibleMoves);
+				movePriors = new float[n];
+				for (int i = 0; i < n; ++i) {
+					movePriors[i] = (float) (priors != null ? priors[i] : 1.0 / n);
+					// Insertion sort by descending prior: the most promising children are created first.
+					int j = i;
+					for (; j > 0 && movePriors[order[j - 1]] < movePriors[i]; --j) order[j] = order[j - 1];
+					order[j] = i;
+				}
+			} else {
+				// Random order, by an inside-out Fisher-Yates shuffle.
+				for (int i = 0; i < n; ++i) {
+					final int j = random.nextInt(i + 1);
+					order[i] = order[j];
+					order[j] = i;
+				}
 			}
-		} else {
-			assert chanceNodeChildren == null;
-			Map<Node<Move, GS>, Double> chanceNodeChildrenWithProb = new HashMap<>();
-			for (Map.Entry<GS, Double> entry : gameState.nextChanceStatesWithProbs().entrySet()) {
-				Node<Move, GS> child = new Node<>(this, entry.getKey(), null);
-				children.add(child);
-				chanceNodeChildrenWithProb.put(child, entry.getValue());
+			moves = possibleMoves;
+			creationOrder = order;
+			childCapacity = n;
+			children = new ChildList<>(n);
+			return;
+		}
+		final double[] outcomeProbs = gameState.chanceOutcomeProbs();
+		if (outcomeProbs != null) {
+			final double[] cumulativeProbs = new double[outcomeProbs.length];
+			double cumulativeProb = 0;
+			for (int i = 0; i < outcomeProbs.length; ++i) {
+				cumulativeProb += outcomeProbs[i];
+				cumulativeProbs[i] = cumulativeProb;
 			}
-			chanceNodeChildren = new WeightedRandom<>(chanceNodeChildrenWithProb, random);
+			cumulativeOutcomeProbs = cumulativeProbs;
+			outcomeChildren = new AtomicReferenceArray<>(outcomeProbs.length);
+			childCapacity = outcomeProbs.length;
+			children = new ChildList<>(outcomeProbs.length);
+			return;
 		}
-		if (chanceNodeChildren != null) {
-			return chanceNodeChildren.get();
-		} else {
-			return randomElement(children);
+		if (ctx.chanceWideningCoefficient > 0) {
+			// Outcomes are drawn as needed.
+			childCapacity = Integer.MAX_VALUE;
+			children = new ChildList<>(4);
+			return;
+		}
+		assert chanceNodeChildren == null;
+		final Map<GS, Double> nextStates = gameState.nextChanceStatesWithProbs();
+		ChildList<Node<Move, GS>> children = new ChildList<>(nextStates.size());
+		Map<Node<Move, GS>, Double> chanceNodeChildrenWithProb = new HashMap<>();
+		for (Map.Entry<GS, Double> entry : nextStates.entrySet()) {
+			Node<Move, GS> child = new Node<>(this, entry.getKey(), null);
+			children.append(child);
+			chanceNodeChildrenWithProb.put(child, entry.getValue());
+		}
+		chanceNodeChildren = new WeightedRandom<>(chanceNodeChildrenWithProb);
+		childCapacity = children.size();
+		// Publish the children only after they are fully constructed.
+		this.children = children;
+		ctx.treeNodeCount.addAndGet(children.size());
+		ctx.nodesCreated += children.size();
+	}
+
+	/**
+	 * Create the child of a player node at the given position of the creation order, unless another thread has
+	 * created it already.
+	 * @param index number of children created before, as seen by the caller.
+	 * @return the child; null if the node has just been pruned.
+	 */
+	private Node<Move, GS> createChild(int index, SearchContext<Move, GS> ctx) {
+		final Node<Move, GS> child;
+		synchronized (this) {
+			final List<Node<Move, GS>> current = children;
+			if (current == null) return null;
+			if (index < current.size()) return current.get(index);
+			if (index >= creationOrder.length) return null;
+			final int m = creationOrder[index];
+			final Move move = moves.get(m);
+			final GS nextState = gameState.clone();
+			nextState.makeMove(move);
+			child = new Node<>(this, nextState, move);
+			child.prior = movePriors != null ? movePriors[m] : (float) (1.0 / moves.size());
+			appendChild(child);
+		}
+		ctx.treeNodeCount.incrementAndGet();
+		++ctx.nodesCreated;
+		proveNewChild(child, ctx);
+		return child;
+	}
+
+	/**
+	 * Create the child of a chance node for the given outcome, unless another thread has created it already.
+	 * @return the child; null if the node has just been pruned.
+	 */
+	private Node<Move, GS> createOutcomeChild(int outcome, SearchContext<Move, GS> ctx) {
+		final Node<Move, GS> child;
+		synchronized (this) {
+			final AtomicReferenceArray<Node<Move, GS>> slots = outcomeChildren;
+			if (slots == null) return null;
+			final Node<Move, GS> existing = slots.get(outcome);
+			if (existing != null) return existing;
+			final GS nextState = gameState.clone();
+			nextState.makeChanceOutcome(outcome);
+			child = new Node<>(this, nextState, null);
+			slots.set(outcome, child);
+			appendChild(child);
+		}
+		ctx.treeNodeCount.incrementAndGet();
+		++ctx.nodesCreated;
+		proveNewChild(child, ctx);
+		return child;
+	}
+
+	/**
+	 * Prove a new child at its utilities if its game state has terminated, in solver mode, or at the result of the
+	 * endgame solver if it can solve the game state. Done outside the lock of the parent, as solving may take a
+	 * while; meanwhile other threads may play out from the child.
+	 */
+	private static <Move, GS extends GameState<Move, GS>> void proveNewChild(
+			Node<Move, GS> child, SearchContext<Move, GS> ctx) {
+		final GS state = child.gameState;
+		if (ctx.solver && state.terminated()) {
+			child.provenUtilities = state.utilities();
+		} else if (ctx.endgameSolver != null) {
+			child.provenUtilities = ctx.endgameSolver.solve(state);
 		}
 	}
 
-	private <T> T randomElement(List<T> list) {
+	/**
+	 * Draw a chance outcome by making a chance move on a copy of the game state, and return the child of the
+	 * outcome, created unless another child has the same game state. Used under double progressive widening for
+	 * chance nodes of game states without indexed chance outcomes.
+	 * @return the child; null if the node has just been pruned.
+	 */
+	private Node<Move, GS> drawChanceChild(SearchContext<Move, GS> ctx) {
+		final GS nextState = gameState.clone();
+		nextState.makeChanceMove();
+		final Node<Move, GS> child;
+		synchronized (this) {
+			final List<Node<Move, GS>> current = children;
+			if (current == null) return null;
+			for (int i = 0, n = current.size(); i < n; ++i) {
+				if (current.get(i).gameState.equals(nextState)) return current.get(i);
+			}
+			child = new Node<>(this, nextState, null);
+			appendChild(child);
+		}
+		ctx.treeNodeCount.incrementAndGet();
+		++ctx.nodesCreated;
+		proveNewChild(child, ctx);
+		return child;
+	}
+
+	/**
+	 * @return the child of an outcome drawn among the outcomes of the children created, in proportion to their
+	 *   probabilities; null if there is none.
+	 */
+	private static <Move, GS extends GameState<Move, GS>> Node<Move, GS> drawCreatedOutcomeChild(
+			AtomicReferenceArray<Node<Move, GS>> slots, double[] cumulativeProbs) {
+		double createdProb = 0;
+		for (int i = 0; i < cumulativeProbs.length; ++i) {
+			if (slots.get(i) != null) createdProb += cumulativeProbs[i] - (i > 0 ? cumulativeProbs[i - 1] : 0);
+		}
+		double r = ThreadLocalRandom.current().nextDouble() * createdProb;
+		Node<Move, GS> drawn = null;
+		for (int i = 0; i < cumulativeProbs.length; ++i) {
+			final Node<Move, GS> child = slots.get(i);
+			if (child == null) continue;
+			drawn = child;
+			r -= cumulativeProbs[i] - (i > 0 ? cumulativeProbs[i - 1] : 0);
+			if (r < 0) break;
+		}
+		return drawn;
+	}
+
+	/**
+	 * @return a child drawn in proportion to its visit count plus one.
+	 */
+	private static <Move, GS extends GameState<Move, GS>> Node<Move, GS> drawVisitedChild(List<Node<Move, GS>> children) {
+		final int n = children.size();
+		long total = 0;
+		for (int i = 0; i < n; ++i) total += children.get(i).visitCount + 1;
+		long r = ThreadLocalRandom.current().nextLong(total);
+		for (int i = 0; i < n - 1; ++i) {
+			r -= children.get(i).visitCount + 1;
+			if (r < 0) return children.get(i);
+		}
+		return children.get(n - 1);
+	}
+
+	/**
+	 * Publish a child added to the children. Called holding the lock of this node.
+	 */
+	private void appendChild(Node<Move, GS> child) {
+		children.append(child);
+	}
+
+	/**
+	 * @param cumulativeProbs cumulative probabilities of the indexed outcomes of a chance node.
+	 * @return index of a random outcome.
+	 */
+	private static int sampleOutcome(double[] cumulativeProbs) {
+		final double r = ThreadLocalRandom.current().nextDouble() * cumulativeProbs[cumulativeProbs.length - 1];
+		for (int i = 0; i < cumulativeProbs.length - 1; ++i) {
+			if (r < cumulativeProbs[i]) return i;
+		}
+		return cumulativeProbs.length - 1;
+	}
+
+	/**
+	 * Make a node of another search tree a child of this node, pertaining to the same game state, e.g. when
+	 * combining the root children of independently grown trees. The child of the same move must not have been
+	 * created in this node.
+	 */
+	synchronized void adoptChild(Node<Move, GS> child) {
+		final int created = children.size();
+		for (int i = created; i < creationOrder.length; ++i) {
+			final int m = creationOrder[i];
+			if (moves.get(m).equals(child.causationMove)) {
+				// Move it to the front of the children yet to be created.
+				creationOrder[i] = creationOrder[created];
+				creationOrder[created] = m;
+				child.parent = this;
+				appendChild(child);
+				return;
+			}
+		}
+	}
+
+	static <T> T randomElement(List<T> list) {
 		final int s = list.size();
 		switch (s) {
 		case 0:
@@ -121,67 +446,617 @@ public class Node<Move, GS extends GameState<Move, GS>> {
 		case 1:
 			return list.get(0);
 		default:
-			return list.get(random.nextInt(list.size()));
+			return list.get(ThreadLocalRandom.current().nextInt(list.size()));
 		}
 	}
 
-	Node<Move, GS> selectChild() {
-		if (unexpanded() || terminated()) {
-			// Leaf node or node of a terminated state, nothing to select.
+	/**
+	 * Select a child to descend to, creating it if it is selected for the first time.
+	 * @return the child; null if this node is a leaf, or no child can be created within the memory budget.
+	 */
+	Node<Move, GS> selectChild(SearchContext<Move, GS> ctx) {
+		if (unexpanded() || terminated() || provenUtilities != null) {
+			// Leaf node, node of a terminated state or proven node, nothing to select.
 			return null;
 		}
 		if (gameState.currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
-			assert chanceNodeChildren != null;
-			return chanceNodeChildren.get();
+			// Null if the node has just been pruned by another thread.
+			final List<Node<Move, GS>> children = this.children;
+			final AtomicReferenceArray<Node<Move, GS>> slots = outcomeChildren;
+			final double[] cumulativeProbs = cumulativeOutcomeProbs;
+			final boolean widening = ctx.chanceWideningCoefficient > 0;
+			if (children != null && slots != null && cumulativeProbs != null) {
+				final int outcome = sampleOutcome(cumulativeProbs);
+				final Node<Move, GS> child = slots.get(outcome);
+				if (child != null || ctx.atNodeLimit()) return child;
+				if (widening && children.size() >= ctx.chanceChildrenAllowed(visitCount)) {
+					// No more children for now: draw again among the outcomes of the children created.
+					return drawCreatedOutcomeChild(slots, cumulativeProbs);
+				}
+				return createOutcomeChild(outcome, ctx);
+			}
+			// Null if the node has just been pruned by another thread.
+			WeightedRandom<Node<Move, GS>> chanceChildren = chanceNodeChildren;
+			if (chanceChildren != null) return chanceChildren.get();
+			if (children == null || childCapacity != Integer.MAX_VALUE) return null;
+			final int created = children.size();
+			if (created > 0 && (ctx.atNodeLimit() || created >= ctx.chanceChildrenAllowed(visitCount))) {
+				// The probabilities of the outcomes are unknown: draw a child in proportion to its visits.
+				return drawVisitedChild(children);
+			}
+			return ctx.atNodeLimit() ? null : drawChanceChild(ctx);
 		} else {
-			if (visitCount == 0) {
-				return randomElement(children);
+			final List<Node<Move, GS>> children = this.children;
+			if (children == null) return null;
+			final int created = children.size();
+			final int parentVisits = visitCount;
+			// Children yet to be created that may be selected now.
+			int creatable = ctx.atNodeLimit() ? 0 : childCapacity - created;
+			if (creatable > 0 && ctx.wideningCoefficient > 0) {
+				creatable = Math.min(creatable, ctx.childrenAllowed(parentVisits) - created);
 			}
+			if (parentVisits == 0) {
+				return created > 0 || creatable <= 0 ? randomElement(children) : createChild(created, ctx);
+			}
+			final SelectionPolicy policy = ctx.selectionPolicy;
+			final boolean unvisitedFirst = policy.unvisitedFirst();
+			final boolean squaredScores = ctx.squaredScores;
+			final boolean rave = ctx.raveEquivalence > 0;
+			final TranspositionTable transpositionTable = ctx.transpositionTable;
+			final boolean solver = ctx.solver;
+			final int player = gameState.currentPlayer();
+			final double parentTerm = policy.parentTerm(parentVisits);
 			double maxScore = -Double.MAX_VALUE;
 			Node<Move, GS> selected = null;
-			ArrayList<Node<Move, GS>> unvisitedChildren = new ArrayList<>();
-			for (Node<Move, GS> child : children) {
-				if (child.visitCount() == 0) {
-					unvisitedChildren.add(child);
+			int unvisitedSeen = 0;
+			for (int i = 0; i < created; ++i) {
+				final Node<Move, GS> child = children.get(i);
+				// A proven loss is never worth playing, nor exploring.
+				if (solver && child.provenLoss(player, ctx.solverWinUtility)) continue;
+				final int visits = child.visitCount;
+				if (visits == 0 && unvisitedFirst) {
+					// Pick uniformly among the unvisited children by reservoir sampling.
+					if (ThreadLocalRandom.current().nextInt(++unvisitedSeen) == 0) selected = child;
 					continue;
 				}
-				if (unvisitedChildren.isEmpty()) {
-					double uctScore = child.sumScores() / child.visitCount() +
-						UCT_Coef * Math.sqrt(Math.log(visitCount) / child.visitCount());
-					if (uctScore > maxScore) {
-						maxScore = uctScore;
+				if (unvisitedSeen == 0) {
+					double meanScore = 0;
+					double meanSquaredScore = 0;
+					if (visits > 0) {
+						meanScore = child.sumScores() / visits;
+						if (transpositionTable != null) {
+							// Prefer the estimate from all transposed nodes when it rests on more playouts.
+							double sharedMeanScore =
+									transpositionTable.meanScore(child.gameState.zobristHash(), visits);
+							if (!Double.isNaN(sharedMeanScore)) meanScore = sharedMeanScore;
+						}
+						if (squaredScores) meanSquaredScore = child.sumSquaredScores() / visits;
+					}
+					if (rave) {
+						meanScore = ctx.raveMeanScore(visits, meanScore, child.amafVisitCount, child.amafSumScores());
+					}
+					double score = policy.score(parentTerm, visits, meanScore, meanSquaredScore, child.prior);
+					if (score > maxScore) {
+						maxScore = score;
 						selected = child;
 					}
 				}
 			}
-			return unvisitedChildren.isEmpty() ? selected : randomElement(unvisitedChildren);
+			if (creatable > 0) {
+				// Children yet to be created are unvisited, and the next one in the creation order has the highest
+				// prior among them.
+				if (unvisitedFirst) {
+					if (ThreadLocalRandom.current().nextInt(unvisitedSeen + creatable) < creatable) {
+						return createChild(created, ctx);
+					}
+				} else {
+					// Null if the node has just been pruned by another thread.
+					final int[] order = creationOrder;
+					final float[] priors = movePriors;
+					if (order != null) {
+						final double prior = priors != null ? priors[order[created]] : 1.0 / order.length;
+						if (policy.score(parentTerm, 0, 0, 0, prior) > maxScore) return createChild(created, ctx);
+					}
+				}
+			}
+			return selected;
 		}
 	}
 
-	double[] simulate() {
-		if (children != null && !children.isEmpty()) {
-			throw new IllegalStateException("Not a leaf node: " + gameState + "; child count: " + children.size());
+	/**
+	 * Play out randomly from the game state of this node, which is left unchanged. This is normally done on a leaf
+	 * node, but in tree parallel search a thread may play out from a node another thread is expanding, which is
+	 * still a valid sample. A proven node is not played out, its proven utilities are returned instead.
+	 * @return utilities of the terminated game.
+	 */
+	double[] simulate(SearchContext<Move, GS> ctx) {
+		final double[] proven = provenUtilities;
+		if (proven != null) {
+			ctx.playedMoveCount = 0;
+			return proven;
 		}
+		ctx.pathLength = 0;
+		Node<Move, GS> node = this;
+		for (; node.parent != null; node = node.parent) {
+			final Node<Move, GS> parent = node.parent;
+			if (parent.gameState.currentPlayer() != GameState.PLAYER_CHANCE_NODE) {
+				ctx.recordPathMove(node.causationMove, -1);
+			} else {
+				final int outcome = parent.outcomeIndex(node);
+				if (outcome < 0) return playOut(gameState.clone(), ctx);
+				ctx.recordPathMove(null, outcome);
+			}
+		}
+		return playOutOnScratchState(node.gameState, gameState, ctx);
+	}
+
+	/**
+	 * @return index of the outcome of the given child of a chance node; -1 if the outcomes are not indexed, or the
+	 *   node has just been pruned by another thread.
+	 */
+	private int outcomeIndex(Node<Move, GS> child) {
+		final AtomicReferenceArray<Node<Move, GS>> slots = outcomeChildren;
+		if (slots == null) return -1;
+		for (int i = 0, n = slots.length(); i < n; ++i) {
+			if (slots.get(i) == child) return i;
+		}
+		return -1;
+	}
 
-		GS state = gameState.clone();
+	/**
+	 * Play out from a node of a search tree on the scratch state of the context: replay the path moves recorded
+	 * in the context on it, play out, and take all the moves back. The game state of the leaf is cloned and played
+	 * out instead if game states are not undoable.
+	 * @param rootState game state of the root of the search tree.
+	 * @param leafState game state of the node, reached from the root by the path moves; left unchanged.
+	 * @return utilities of the terminated game, or as estimated by the evaluator of the context.
+	 */
+	static <Move, GS extends GameState<Move, GS>> double[] playOutOnScratchState(GS rootState, GS leafState,
+			SearchContext<Move, GS> ctx) {
+		if (!(rootState instanceof UndoableGameState)) return playOut(leafState.clone(), ctx);
+		if (ctx.scratchSource != rootState) {
+			ctx.scratchState = rootState.clone();
+			ctx.scratchSource = rootState;
+		}
+		final GS scratch = ctx.scratchState;
+		final UndoableGameState<Move, GS> state = (UndoableGameState<Move, GS>) scratch;
+		if (ctx.pathUndoTokens.length < ctx.pathLength) {
+			ctx.pathUndoTokens = new long[Math.max(ctx.pathLength, 2 * ctx.pathUndoTokens.length)];
+		}
+		final long[] undoTokens = ctx.pathUndoTokens;
+		final Object[] pathMoves = ctx.pathMoves;
+		final int[] pathOutcomes = ctx.pathOutcomes;
+		int made = 0;
+		try {
+			for (int i = ctx.pathLength - 1; i >= 0; --i) {
+				if (pathOutcomes[i] < 0) {
+					@SuppressWarnings("unchecked")
+					final Move move = (Move) pathMoves[i];
+					undoTokens[made] = state.makeMoveUndoable(move);
+				} else {
+					undoTokens[made] = state.makeChanceOutcomeUndoable(pathOutcomes[i]);
+				}
+				++made;
+			}
+			return playOutInPlace(scratch, state, ctx);
+		} finally {
+			while (made > 0) state.unmakeMove(undoTokens[--made]);
+		}
+	}
+
+	/**
+	 * Play out randomly from a game state until the game terminates or the rollout depth of the context is
+	 * reached. The game state is left as the playout ends, so it must be a copy of the caller's own.
+	 * @return utilities of the terminated game, or as estimated by the evaluator of the context.
+	 */
+	static <Move, GS extends GameState<Move, GS>> double[] playOut(GS state, SearchContext<Move, GS> ctx) {
+		final boolean rave = ctx.raveEquivalence > 0;
+		ctx.playedMoveCount = 0;
+		final int rolloutDepth = ctx.rolloutDepth;
+		int moveCount = 0;
 		while (!state.terminated()) {
+			if (moveCount == rolloutDepth) {
+				ctx.countRollout(moveCount);
+				return ctx.evaluator.evaluate(state);
+			}
 			if (state.currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
 				state.makeChanceMove();
 			} else {
 				Move m = randomElement(state.possibleMoves());
 				assert m != null;
+				if (rave) ctx.recordMove(m, state.currentPlayer());
 				state.makeMove(m);
 			}
+			++moveCount;
 		}
+		ctx.countRollout(moveCount);
 		return state.utilities();
 	}
 
-	void backPropagate(double[] utilities) {
+	/**
+	 * Play out on a game state, then take back all the moves made.
+	 * @param gameState the game state, as given to the evaluator.
+	 * @param state the same game state, through which moves are made and taken back.
+	 */
+	private static <Move, GS extends GameState<Move, GS>> double[] playOutInPlace(
+			GS gameState, UndoableGameState<Move, GS> state, SearchContext<Move, GS> ctx) {
+		long[] undoTokens = ctx.undoTokens;
+		final boolean rave = ctx.raveEquivalence > 0;
+		ctx.playedMoveCount = 0;
+		final int rolloutDepth = ctx.rolloutDepth;
+		int moveCount = 0;
+		try {
+			while (!state.terminated()) {
+				if (moveCount == rolloutDepth) {
+					ctx.countRollout(moveCount);
+					return ctx.evaluator.evaluate(gameState);
+				}
+				if (moveCount == undoTokens.length) {
+					undoTokens = ctx.undoTokens = Arrays.copyOf(undoTokens, 2 * moveCount);
+				}
+				if (state.currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
+					undoTokens[moveCount++] = state.makeChanceMoveUndoable();
+				} else {
+					Move m = randomElement(state.possibleMoves());
+					assert m != null;
+					if (rave) ctx.recordMove(m, state.currentPlayer());
+					undoTokens[moveCount++] = state.makeMoveUndoable(m);
+				}
+			}
+			ctx.countRollout(moveCount);
+			return state.utilities();
+		} finally {
+			while (moveCount > 0) state.unmakeMove(undoTokens[--moveCount]);
+		}
+	}
+
+	void backPropagate(double[] utilities, SearchContext<Move, GS> ctx) {
+		backPropagate(utilities, 1, ctx);
+	}
+
+	/**
+	 * Back propagate the mean utilities of a batch of playouts from this node. The squared scores, if kept, are
+	 * approximated by the squares of the mean scores.
+	 * @param utilities mean utilities over the batch.
+	 * @param playouts number of playouts in the batch, each counted as a visit.
+	 */
+	void backPropagate(double[] utilities, int playouts, SearchContext<Move, GS> ctx) {
+		final TranspositionTable transpositionTable = ctx.transpositionTable;
+		final boolean squaredScores = ctx.squaredScores;
+		final boolean rave = ctx.raveEquivalence > 0;
+		final boolean solver = ctx.solver;
+		// Single writer: ordered stores are enough and much cheaper than atomic read-modify-write.
 		Node<Move, GS> node = this;
 		while (node.parent != null) {
-			++node.visitCount;
-			node.sumScores += utilities[node.parent.gameState.currentPlayer()];
+			if (solver && node.provenUtilities != null) node.parent.tryProve(node, ctx);
+			if (rave) node.parent.updateAmaf(node, utilities, false, ctx);
+			final double score = playouts * utilities[node.parent.gameState.currentPlayer()];
+			VISIT_COUNT.lazySet(node, node.visitCount + playouts);
+			SUM_SCORES_BITS.lazySet(node, Double.doubleToRawLongBits(node.sumScores() + score));
+			if (squaredScores) {
+				SUM_SQUARED_SCORES_BITS.lazySet(node,
+						Double.doubleToRawLongBits(node.sumSquaredScores() + score * score / playouts));
+			}
+			if (transpositionTable != null) {
+				transpositionTable.add(node.gameState.zobristHash(), playouts, score);
+			}
 			node = node.parent;
 		}
+		// The root has no parent to score against, but its visit count drives the UCT exploration term.
+		VISIT_COUNT.lazySet(node, node.visitCount + playouts);
+	}
+
+	/**
+	 * Count a visit to this node before the playout through it completes, and provisionally score it as a loss, so
+	 * that concurrent threads selecting from the same parent are steered towards other children.
+	 * @param virtualLoss score deducted until the playout result is back propagated.
+	 */
+	void addVirtualLoss(double virtualLoss) {
+		VISIT_COUNT.incrementAndGet(this);
+		if (parent != null) addScoreAtomically(-virtualLoss);
+	}
+
+	/**
+	 * Back propagate utilities of a playout along a path where addVirtualLoss() has been applied to every node.
+	 * Visits were already counted, so only the scores are updated, restoring the virtual loss.
+	 */
+	void backPropagateWithVirtualLoss(double[] utilities, double virtualLoss, SearchContext<Move, GS> ctx) {
+		final TranspositionTable transpositionTable = ctx.transpositionTable;
+		final boolean squaredScores = ctx.squaredScores;
+		final boolean rave = ctx.raveEquivalence > 0;
+		final boolean solver = ctx.solver;
+		for (Node<Move, GS> node = this; node.parent != null; node = node.parent) {
+			if (solver && node.provenUtilities != null) node.parent.tryProve(node, ctx);
+			if (rave) node.parent.updateAmaf(node, utilities, true, ctx);
+			final double score = utilities[node.parent.gameState.currentPlayer()];
+			node.addScoreAtomically(score + virtualLoss);
+			if (squaredScores) node.addAtomically(SUM_SQUARED_SCORES_BITS, score * score);
+			if (transpositionTable != null) {
+				transpositionTable.add(node.gameState.zobristHash(), 1, score);
+			}
+		}
+	}
+
+	/**
+	 * Try to prove this node by the minimax rule, given that a child has just been proven: a player node is proven
+	 * once a child gives the player to move a win, or once all its children are created and proven, valued as the
+	 * best of them for the player to move. Chance nodes are not proven.
+	 */
+	private void tryProve(Node<Move, GS> provenChild, SearchContext<Move, GS> ctx) {
+		if (provenUtilities != null) return;
+		final int player = gameState.currentPlayer();
+		if (player == GameState.PLAYER_CHANCE_NODE) return;
+		final double[] childUtilities = provenChild.provenUtilities;
+		if (childUtilities[player] >= ctx.solverWinUtility) {
+			provenUtilities = childUtilities;
+			return;
+		}
+		// Null if the node has just been pruned by another thread.
+		final List<Node<Move, GS>> children = this.children;
+		if (children == null || children.size() < childCapacity) return;
+		double[] best = null;
+		for (int i = 0, n = children.size(); i < n; ++i) {
+			final double[] utilities = children.get(i).provenUtilities;
+			if (utilities == null) return;
+			if (best == null || utilities[player] > best[player]) best = utilities;
+		}
+		provenUtilities = best;
+	}
+
+	/**
+	 * Update the AMAF statistics of the children of this node, on the path of a playout back propagated through the
+	 * given child: a child counts the playout if its move was made by the player to move here, in the tree below
+	 * or in the rollout. The move into the given child is added to the moves recorded in the context, for the
+	 * levels above. With leaf parallelism only the moves of one playout of a batch are known, and the batch counts
+	 * as one playout of the mean utilities.
+	 * @param atomic whether other threads may update the statistics concurrently.
+	 */
+	private void updateAmaf(Node<Move, GS> pathChild, double[] utilities, boolean atomic, SearchContext<Move, GS> ctx) {
+		final int player = gameState.currentPlayer();
+		if (player == GameState.PLAYER_CHANCE_NODE) return;
+		ctx.recordMove(pathChild.causationMove, player);
+		// Null if the node has just been pruned by another thread.
+		final List<Node<Move, GS>> children = this.children;
+		if (children == null) return;
+		final double score = utilities[player];
+		for (int i = 0, n = children.size(); i < n; ++i) {
+			final Node<Move, GS> child = children.get(i);
+			if (!ctx.played(child.causationMove, player)) continue;
+			if (atomic) {
+				AMAF_VISIT_COUNT.incrementAndGet(child);
+				child.addAtomically(AMAF_SUM_SCORES_BITS, score);
+			} else {
+				AMAF_VISIT_COUNT.lazySet(child, child.amafVisitCount + 1);
+				AMAF_SUM_SCORES_BITS.lazySet(child, Double.doubleToRawLongBits(child.amafSumScores() + score));
+			}
+		}
+	}
+
+	/**
+	 * @return number of nodes in the subtree rooted at this node.
+	 */
+	int subtreeSize() {
+		int size = 0;
+		ArrayDeque<Node<Move, GS>> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			Node<Move, GS> node = stack.pop();
+			++size;
+			final List<Node<Move, GS>> nodeChildren = node.children;
+			if (nodeChildren != null) {
+				for (Node<Move, GS> child : nodeChildren) stack.push(child);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Remove the subtrees below the least visited nodes of the subtree rooted at this node, until at least the
+	 * given number of nodes are removed or nothing but this node is left. The statistics of the removed nodes are
+	 * already summed up in the nodes kept, which turn into leaves that can be expanded again.
+	 * Safe against concurrent searching threads, which at worst back propagate through nodes just removed.
+	 * @return number of nodes removed.
+	 */
+	int pruneLeastVisited(int nodesToRemove) {
+		List<Node<Move, GS>> expanded = new ArrayList<>();
+		ArrayDeque<Node<Move, GS>> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			final List<Node<Move, GS>> nodeChildren = stack.pop().children;
+			if (nodeChildren == null) continue;
+			for (Node<Move, GS> child : nodeChildren) {
+				if (child.children != null) {
+					expanded.add(child);
+					stack.push(child);
+				}
+			}
+		}
+		// Sort by a snapshot of the visit counts, which concurrent searching threads keep updating. Descendants
+		// never have more visits than their ancestors, so least visited subtrees come first.
+		final long[] order = new long[expanded.size()];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = (long) expanded.get(i).visitCount << 32 | i;
+		}
+		Arrays.sort(order);
+		int removed = 0;
+		for (long entry : order) {
+			if (removed >= nodesToRemove) break;
+			final Node<Move, GS> node = expanded.get((int) entry);
+			// Null if within a subtree removed already.
+			if (node.children != null) removed += node.collapse();
+		}
+		return removed;
+	}
+
+	/**
+	 * Remove all descendants, turning this node into an unexpanded leaf.
+	 * @return number of nodes removed.
+	 */
+	private int collapse() {
+		int removed = 0;
+		ArrayDeque<Node<Move, GS>> stack = new ArrayDeque<>();
+		// Hold the lock so that no child is created meanwhile.
+		synchronized (this) {
+			stack.push(this);
+			while (!stack.isEmpty()) {
+				Node<Move, GS> node = stack.pop();
+				final List<Node<Move, GS>> nodeChildren = node.children;
+				if (nodeChildren == null) continue;
+				removed += nodeChildren.size();
+				for (Node<Move, GS> child : nodeChildren) stack.push(child);
+				node.children = null;
+			}
+			moves = null;
+			creationOrder = null;
+			movePriors = null;
+			cumulativeOutcomeProbs = null;
+			outcomeChildren = null;
+			chanceNodeChildren = null;
+			childCapacity = 0;
+		}
+		expansionClaimed = 0;
+		return removed;
+	}
+
+	/**
+	 * Make this node the root of its own search tree, e.g. when the search tree is reused for a later move.
+	 */
+	void detachFromParent() {
+		parent = null;
+	}
+
+	/**
+	 * Add the statistics of another search tree's node, pertaining to the same game state, into this node.
+	 * Used for combining root children of independently grown trees.
+	 */
+	void mergeStatistics(Node<Move, GS> other) {
+		VISIT_COUNT.addAndGet(this, other.visitCount);
+		addScoreAtomically(other.sumScores());
+		addAtomically(SUM_SQUARED_SCORES_BITS, other.sumSquaredScores());
+		AMAF_VISIT_COUNT.addAndGet(this, other.amafVisitCount);
+		addAtomically(AMAF_SUM_SCORES_BITS, other.amafSumScores());
+	}
+
+	/**
+	 * @return whether the children of this node are identified by their game states in a saved tree: those of a
+	 *   chance node of a game state without indexed chance outcomes. Others are identified by savedChildIndex().
+	 */
+	boolean childrenSavedByState() {
+		return gameState.currentPlayer() == GameState.PLAYER_CHANCE_NODE && cumulativeOutcomeProbs == null;
+	}
+
+	/**
+	 * @return index identifying a child of this node in a saved tree: the index of its move among the legal moves,
+	 *   or of its chance outcome.
+	 */
+	int savedChildIndex(Node<Move, GS> child) {
+		if (gameState.currentPlayer() != GameState.PLAYER_CHANCE_NODE) return moves.indexOf(child.causationMove);
+		final AtomicReferenceArray<Node<Move, GS>> slots = outcomeChildren;
+		for (int i = 0; i < slots.length(); ++i) {
+			if (slots.get(i) == child) return i;
+		}
+		throw new IllegalArgumentException("Not a child");
+	}
+
+	/**
+	 * Expand this node of a tree being loaded, creating no child but for chance nodes of game states without
+	 * indexed chance outcomes.
+	 */
+	void restoreExpansion(SearchContext<Move, GS> ctx) {
+		expansionClaimed = 1;
+		listChildren(ctx);
+	}
+
+	/**
+	 * Create the child of the given index, as returned by savedChildIndex(), in a tree being loaded.
+	 * @return the child; null if the index is out of range or the child has been created already.
+	 */
+	Node<Move, GS> restoreChild(int index, SearchContext<Move, GS> ctx) {
+		if (index < 0 || index >= childCapacity) return null;
+		if (gameState.currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
+			return outcomeChildren.get(index) == null ? createOutcomeChild(index, ctx) : null;
+		}
+		// Make the move the next one in the creation order.
+		final int created = children.size();
+		for (int i = created; i < creationOrder.length; ++i) {
+			if (creationOrder[i] == index) {
+				creationOrder[i] = creationOrder[created];
+				creationOrder[created] = index;
+				return createChild(created, ctx);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the child of the given game state in a tree being loaded, created at expansion, or now if the chance
+	 *   outcomes are drawn as needed; null if none.
+	 */
+	Node<Move, GS> restoreChild(GS state, SearchContext<Move, GS> ctx) {
+		for (Node<Move, GS> child : children) {
+			if (child.gameState.equals(state)) return child;
+		}
+		if (childCapacity != Integer.MAX_VALUE) return null;
+		final Node<Move, GS> child = new Node<>(this, state, null);
+		appendChild(child);
+		ctx.treeNodeCount.incrementAndGet();
+		++ctx.nodesCreated;
+		proveNewChild(child, ctx);
+		return child;
+	}
+
+	/**
+	 * Set the statistics of this node in a tree being loaded.
+	 */
+	void restoreStatistics(int visits, double sumScores, double sumSquaredScores, int amafVisits, double amafSumScores) {
+		visitCount = visits;
+		sumScoresBits = Double.doubleToRawLongBits(sumScores);
+		sumSquaredScoresBits = Double.doubleToRawLongBits(sumSquaredScores);
+		amafVisitCount = amafVisits;
+		amafSumScoresBits = Double.doubleToRawLongBits(amafSumScores);
+	}
+
+	/**
+	 * Read-only list of the children of a node, to which the thread holding the lock of the node appends. The
+	 * elements are kept in an array grown by doubling, or allocated at the final size when known; appends are
+	 * published to other threads through the volatile size. Readers see a list that may grow but never shrinks, and
+	 * elements below a size they have read never change.
+	 */
+	private static final class ChildList<E> extends AbstractList<E> implements RandomAccess {
+		private volatile Object[] elements;
+		private volatile int size = 0;
+
+		ChildList(int initialCapacity) {
+			elements = new Object[Math.max(1, initialCapacity)];
+		}
+
+		/**
+		 * Append an element. Called by a single thread at a time.
+		 */
+		void append(E element) {
+			final int n = size;
+			Object[] array = elements;
+			if (n == array.length) {
+				array = Arrays.copyOf(array, 2 * n);
+				elements = array;
+			}
+			array[n] = element;
+			// Publishes the element, and the grown array, to readers of the size.
+			size = n + 1;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public E get(int index) {
+			// Read the size before the array, which holds at least that many elements.
+			final int n = size;
+			if (index < 0 || index >= n) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + n);
+			return (E) elements[index];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
 	}
 }
\ No newline at end of file
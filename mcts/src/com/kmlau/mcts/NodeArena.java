@@ -0,0 +1,446 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Search tree stored as structure of arrays: node statistics, parent indices and child index ranges live in
+ * primitive arrays allocated in large chunks, instead of one object per node. This spares the garbage collector
+ * millions of small objects and keeps the statistics of siblings next to each other in memory. The arena is reset,
+ * and its chunks reused, between searches.
+ * Nodes are referred to by index. The children of a node take consecutive indices.
+ * A single thread grows the tree.
+ *
+ * @author K M Lau
+ */
+final class NodeArena<Move, GS extends GameState<Move, GS>> {
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int NO_PARENT = -1;
+	private static final int UNEXPANDED = -1;
+
+	private int[][] visitCounts = new int[0][];
+	private double[][] sumScores = new double[0][];
+	private double[][] sumSquaredScores = new double[0][];
+	private int[][] amafVisitCounts = new int[0][];
+	private double[][] amafSumScores = new double[0][];
+	// Prior probability of the causation move of each node.
+	private float[][] priors = new float[0][];
+	private int[][] parents = new int[0][];
+	private int[][] firstChildren = new int[0][];
+	private int[][] childCounts = new int[0][];
+	// Cumulative probability of the chance outcomes up to each child of a chance node; unused for other nodes.
+	private double[][] cumulativeProbs = new double[0][];
+	private Object[][] gameStates = new Object[0][];
+	private Object[][] causationMoves = new Object[0][];
+	private int size = 0;
+
+	/**
+	 * Drop all nodes, keeping the allocated chunks for reuse.
+	 */
+	void reset() {
+		for (int c = 0; c <= (size - 1) >>> CHUNK_BITS && size > 0; ++c) {
+			// Release the game states and moves to the garbage collector.
+			Arrays.fill(gameStates[c], null);
+			Arrays.fill(causationMoves[c], null);
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return number of nodes allocated, including the slots skipped to keep sibling ranges within a chunk.
+	 */
+	int size() {
+		return size;
+	}
+
+	private void addChunk() {
+		final int n = visitCounts.length + 1;
+		visitCounts = Arrays.copyOf(visitCounts, n);
+		sumScores = Arrays.copyOf(sumScores, n);
+		sumSquaredScores = Arrays.copyOf(sumSquaredScores, n);
+		amafVisitCounts = Arrays.copyOf(amafVisitCounts, n);
+		amafSumScores = Arrays.copyOf(amafSumScores, n);
+		priors = Arrays.copyOf(priors, n);
+		parents = Arrays.copyOf(parents, n);
+		firstChildren = Arrays.copyOf(firstChildren, n);
+		childCounts = Arrays.copyOf(childCounts, n);
+		cumulativeProbs = Arrays.copyOf(cumulativeProbs, n);
+		gameStates = Arrays.copyOf(gameStates, n);
+		causationMoves = Arrays.copyOf(causationMoves, n);
+		visitCounts[n - 1] = new int[CHUNK_SIZE];
+		sumScores[n - 1] = new double[CHUNK_SIZE];
+		sumSquaredScores[n - 1] = new double[CHUNK_SIZE];
+		amafVisitCounts[n - 1] = new int[CHUNK_SIZE];
+		amafSumScores[n - 1] = new double[CHUNK_SIZE];
+		priors[n - 1] = new float[CHUNK_SIZE];
+		parents[n - 1] = new int[CHUNK_SIZE];
+		firstChildren[n - 1] = new int[CHUNK_SIZE];
+		childCounts[n - 1] = new int[CHUNK_SIZE];
+		cumulativeProbs[n - 1] = new double[CHUNK_SIZE];
+		gameStates[n - 1] = new Object[CHUNK_SIZE];
+		causationMoves[n - 1] = new Object[CHUNK_SIZE];
+	}
+
+	/**
+	 * Allocate consecutive nodes within one chunk.
+	 * @return index of the first node.
+	 */
+	private int allocate(int count, int parent) {
+		if ((size & CHUNK_MASK) + count > CHUNK_SIZE) {
+			// Skip to the next chunk.
+			size = (size | CHUNK_MASK) + 1;
+		}
+		final int first = size;
+		size += count;
+		while (visitCounts.length <= (size - 1) >>> CHUNK_BITS) addChunk();
+		for (int i = first; i < size; ++i) {
+			final int c = i >>> CHUNK_BITS, j = i & CHUNK_MASK;
+			visitCounts[c][j] = 0;
+			sumScores[c][j] = 0;
+			sumSquaredScores[c][j] = 0;
+			amafVisitCounts[c][j] = 0;
+			amafSumScores[c][j] = 0;
+			parents[c][j] = parent;
+			childCounts[c][j] = UNEXPANDED;
+		}
+		return first;
+	}
+
+	int newRoot(GS gameState) {
+		final int root = allocate(1, NO_PARENT);
+		gameStates[0][root] = gameState;
+		return root;
+	}
+
+	@SuppressWarnings("unchecked")
+	GS gameState(int node) {
+		return (GS) gameStates[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	@SuppressWarnings("unchecked")
+	Move causationMove(int node) {
+		return (Move) causationMoves[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	int visitCount(int node) {
+		return visitCounts[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	double sumScores(int node) {
+		return sumScores[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	private int parent(int node) {
+		return parents[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	/**
+	 * @return number of children, or -1 if the node has not been expanded.
+	 */
+	int childCount(int node) {
+		return childCounts[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	int firstChild(int node) {
+		return firstChildren[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	private void setChild(int child, GS gameState, Object move) {
+		gameStates[child >>> CHUNK_BITS][child & CHUNK_MASK] = gameState;
+		causationMoves[child >>> CHUNK_BITS][child & CHUNK_MASK] = move;
+	}
+
+	/**
+	 * Expand a node, creating its children.
+	 * @return a random child to play out, or -1 if the game has terminated at the node.
+	 */
+	private int expand(int node, SearchContext<Move, GS> ctx) {
+		final GS gameState = gameState(node);
+		final int first;
+		final int count;
+		if (gameState.currentPlayer() != GameState.PLAYER_CHANCE_NODE) {
+			List<Move> possibleMoves = gameState.possibleMoves();
+			count = possibleMoves.size();
+			first = allocate(count, node);
+			final double[] movePriors = ctx.selectionPolicy.usesPriors() ? gameState.movePriors(possibleMoves) : null;
+			for (int i = 0; i < count; ++i) {
+				final Move m = possibleMoves.get(i);
+				GS nextState = gameState.clone();
+				nextState.makeMove(m);
+				setChild(first + i, nextState, m);
+				priors[(first + i) >>> CHUNK_BITS][(first + i) & CHUNK_MASK] =
+						(float) (movePriors != null ? movePriors[i] : 1.0 / count);
+			}
+		} else {
+			Map<GS, Double> nextStates = gameState.nextChanceStatesWithProbs();
+			count = nextStates.size();
+			first = allocate(count, node);
+			int child = first;
+			double cumulativeProb = 0;
+			for (Map.Entry<GS, Double> entry : nextStates.entrySet()) {
+				cumulativeProb += entry.getValue();
+				cumulativeProbs[child >>> CHUNK_BITS][child & CHUNK_MASK] = cumulativeProb;
+				setChild(child++, entry.getKey(), null);
+			}
+		}
+		firstChildren[node >>> CHUNK_BITS][node & CHUNK_MASK] = first;
+		childCounts[node >>> CHUNK_BITS][node & CHUNK_MASK] = count;
+		return count > 0 ? selectChild(node, ctx) : -1;
+	}
+
+	/**
+	 * @return selected child of an expanded node, or -1 if the game has terminated at the node.
+	 */
+	private int selectChild(int node, SearchContext<Move, GS> ctx) {
+		final int count = childCount(node);
+		if (count <= 0) return -1;
+		final int first = firstChild(node);
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (gameState(node).currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
+			final double r = random.nextDouble() * cumulativeProbs[(first + count - 1) >>> CHUNK_BITS][(first + count - 1) & CHUNK_MASK];
+			for (int child = first; child < first + count - 1; ++child) {
+				if (r < cumulativeProbs[child >>> CHUNK_BITS][child & CHUNK_MASK]) return child;
+			}
+			return first + count - 1;
+		}
+		// Children share a chunk.
+		final int c = first >>> CHUNK_BITS;
+		final int[] visits = visitCounts[c];
+		final double[] sums = sumScores[c];
+		final int begin = first & CHUNK_MASK, end = begin + count;
+		final double[] squares = sumSquaredScores[c];
+		final float[] childPriors = priors[c];
+		final int[] amafVisits = amafVisitCounts[c];
+		final double[] amafSums = amafSumScores[c];
+		final int parentVisits = visitCount(node);
+		if (parentVisits == 0) return first + random.nextInt(count);
+		final SelectionPolicy policy = ctx.selectionPolicy;
+		final boolean unvisitedFirst = policy.unvisitedFirst();
+		final boolean squaredScores = ctx.squaredScores;
+		final boolean rave = ctx.raveEquivalence > 0;
+		final TranspositionTable transpositionTable = ctx.transpositionTable;
+		final double parentTerm = policy.parentTerm(parentVisits);
+		double maxScore = -Double.MAX_VALUE;
+		int selected = -1;
+		int unvisitedSeen = 0;
+		for (int j = begin; j < end; ++j) {
+			final int childVisits = visits[j];
+			if (childVisits == 0 && unvisitedFirst) {
+				// Pick uniformly among the unvisited children by reservoir sampling.
+				if (random.nextInt(++unvisitedSeen) == 0) selected = j;
+				continue;
+			}
+			if (unvisitedSeen == 0) {
+				double meanScore = 0;
+				double meanSquaredScore = 0;
+				if (childVisits > 0) {
+					meanScore = sums[j] / childVisits;
+					if (transpositionTable != null) {
+						double sharedMeanScore = transpositionTable.meanScore(
+								((GameState<?, ?>) gameStates[c][j]).zobristHash(), childVisits);
+						if (!Double.isNaN(sharedMeanScore)) meanScore = sharedMeanScore;
+					}
+					if (squaredScores) meanSquaredScore = squares[j] / childVisits;
+				}
+				if (rave) meanScore = ctx.raveMeanScore(childVisits, meanScore, amafVisits[j], amafSums[j]);
+				double score = policy.score(parentTerm, childVisits, meanScore, meanSquaredScore, childPriors[j]);
+				if (score > maxScore) {
+					maxScore = score;
+					selected = j;
+				}
+			}
+		}
+		return (c << CHUNK_BITS) | selected;
+	}
+
+	private void backPropagate(int node, double[] utilities, SearchContext<Move, GS> ctx) {
+		final TranspositionTable transpositionTable = ctx.transpositionTable;
+		final boolean squaredScores = ctx.squaredScores;
+		final boolean rave = ctx.raveEquivalence > 0;
+		for (int parent = parent(node); parent != NO_PARENT; node = parent, parent = parent(node)) {
+			final int c = node >>> CHUNK_BITS, j = node & CHUNK_MASK;
+			final int player = gameState(parent).currentPlayer();
+			final double score = utilities[player];
+			if (rave && player != GameState.PLAYER_CHANCE_NODE) updateAmaf(parent, node, player, score, ctx);
+			++visitCounts[c][j];
+			sumScores[c][j] += score;
+			if (squaredScores) sumSquaredScores[c][j] += score * score;
+			if (transpositionTable != null) {
+				transpositionTable.add(((GameState<?, ?>) gameStates[c][j]).zobristHash(), 1, score);
+			}
+		}
+		++visitCounts[node >>> CHUNK_BITS][node & CHUNK_MASK];
+	}
+
+	/**
+	 * Update the AMAF statistics of the children of a node on the path of a playout, as Node does.
+	 */
+	private void updateAmaf(int node, int pathChild, int player, double score, SearchContext<Move, GS> ctx) {
+		ctx.recordMove(causationMove(pathChild), player);
+		final int first = firstChild(node);
+		final int c = first >>> CHUNK_BITS;
+		final Object[] moves = causationMoves[c];
+		final int[] amafVisits = amafVisitCounts[c];
+		final double[] amafSums = amafSumScores[c];
+		for (int j = first & CHUNK_MASK, end = j + childCount(node); j < end; ++j) {
+			if (ctx.played(moves[j], player)) {
+				++amafVisits[j];
+				amafSums[j] += score;
+			}
+		}
+	}
+
+	/**
+	 * Run playouts from the root until the budget of the context runs out. The arena cannot free nodes, so it stops
+	 * expanding once it holds the maximum number of tree nodes of the context.
+	 */
+	void runPlayouts(int root, SearchContext<Move, GS> ctx) {
+		final SearchTreeNode<Move, GS> rootView = view(root);
+		while (ctx.budget.proceed(ctx, rootView, 1)) {
+			ctx.startIteration();
+			int node = root;
+			int depth = 0;
+			int count;
+			while ((count = childCount(node)) > 0) {
+				node = selectChild(node, ctx);
+				++depth;
+			}
+			ctx.endPhase(SearchContext.SELECTION);
+			if (count == UNEXPANDED && !ctx.atNodeLimit()) {
+				final int expanded = expand(node, ctx);
+				ctx.nodesCreated += childCount(node);
+				ctx.treeNodeCount.addAndGet(childCount(node));
+				if (expanded >= 0) {
+					node = expanded;
+					++depth;
+				}
+			}
+			ctx.endPhase(SearchContext.EXPANSION);
+			ctx.countDepth(depth);
+			++ctx.playouts;
+			final double[] utilities = simulate(node, root, ctx);
+			ctx.endPhase(SearchContext.PLAYOUT);
+			backPropagate(node, utilities, ctx);
+			ctx.endPhase(SearchContext.BACK_PROPAGATION);
+		}
+	}
+
+	/**
+	 * Play out from a node, on the scratch state of the context as Node does, unless the path from the root goes
+	 * through a chance node: its children are created from nextChanceStatesWithProbs(), and their outcomes cannot
+	 * be replayed. The game state of the node is then cloned.
+	 */
+	private double[] simulate(int node, int root, SearchContext<Move, GS> ctx) {
+		ctx.pathLength = 0;
+		for (int n = node, parent; (parent = parent(n)) != NO_PARENT; n = parent) {
+			if (gameState(parent).currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
+				return Node.playOut(gameState(node).clone(), ctx);
+			}
+			ctx.recordPathMove(causationMove(n), -1);
+		}
+		return Node.playOutOnScratchState(gameState(root), gameState(node), ctx);
+	}
+
+	/**
+	 * @return the child of the root with the highest mean score, or -1 if none has been visited.
+	 */
+	int bestChild(int root) {
+		int best = -1;
+		double maxScore = -Double.MAX_VALUE;
+		final int first = firstChild(root);
+		for (int child = first; child < first + Math.max(childCount(root), 0); ++child) {
+			final int visits = visitCount(child);
+			if (visits > 0) {
+				double score = sumScores(child) / visits;
+				if (score > maxScore) {
+					maxScore = score;
+					best = child;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return read-only view of a node. Valid until the arena is reset.
+	 */
+	SearchTreeNode<Move, GS> view(int node) {
+		return new View(node);
+	}
+
+	private final class View implements SearchTreeNode<Move, GS> {
+		private final int node;
+
+		View(int node) {
+			this.node = node;
+		}
+
+		@Override
+		public int visitCount() {
+			return NodeArena.this.visitCount(node);
+		}
+
+		@Override
+		public double sumScores() {
+			return NodeArena.this.sumScores(node);
+		}
+
+		@Override
+		public Move causationMove() {
+			return NodeArena.this.causationMove(node);
+		}
+
+		@Override
+		public GS gameState() {
+			return NodeArena.this.gameState(node);
+		}
+
+		@Override
+		public List<View> getChildren() {
+			final int count = childCount(node);
+			if (count == UNEXPANDED) return null;
+			final int first = firstChild(node);
+			return new AbstractList<View>() {
+				@Override
+				public View get(int index) {
+					if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Index: " + index);
+					return new View(first + index);
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+	}
+}
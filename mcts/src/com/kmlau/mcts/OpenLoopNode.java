@@ -0,0 +1,239 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Node of an open-loop search tree, which stands for a sequence of moves rather than a game state: it holds its
+ * causation move and statistics only. Each iteration replays the moves from a copy of the root game state, and
+ * draws chance outcomes afresh, so that a node sums up all the game states its moves may lead to. Only player
+ * moves have nodes. As the moves legal at a node may vary with the chance outcomes drawn, selection considers the
+ * children of the moves legal in the game state reached by the iteration.
+ * A single thread grows the tree.
+ *
+ * @author K M Lau
+ */
+final class OpenLoopNode<Move, GS extends GameState<Move, GS>> implements SearchTreeNode<Move, GS> {
+	private final Move causationMove;
+	// Game state of the root; null for the other nodes.
+	private final GS gameState;
+	// Player who made the causation move.
+	private final int mover;
+	// Children created so far, in the first childCount elements; null if there is none.
+	private OpenLoopNode<Move, GS>[] children;
+	private int childCount = 0;
+	private int visitCount = 0;
+	private double sumScores = 0;
+
+	private OpenLoopNode(Move causationMove, GS gameState, int mover) {
+		this.causationMove = causationMove;
+		this.gameState = gameState;
+		this.mover = mover;
+	}
+
+	/**
+	 * @return root of a new open-loop tree for the given game state, which must not be changed meanwhile.
+	 */
+	static <Move, GS extends GameState<Move, GS>> OpenLoopNode<Move, GS> newRoot(GS gameState) {
+		return new OpenLoopNode<>(null, gameState, GameState.PLAYER_CHANCE_NODE);
+	}
+
+	@Override
+	public int visitCount() {
+		return visitCount;
+	}
+
+	@Override
+	public double sumScores() {
+		return sumScores;
+	}
+
+	@Override
+	public Move causationMove() {
+		return causationMove;
+	}
+
+	/**
+	 * @return game state of the root; null for the other nodes, which hold no game state.
+	 */
+	@Override
+	public GS gameState() {
+		return gameState;
+	}
+
+	@Override
+	public List<OpenLoopNode<Move, GS>> getChildren() {
+		if (childCount == 0) return visitCount > 0 ? Arrays.<OpenLoopNode<Move, GS>>asList() : null;
+		final OpenLoopNode<Move, GS>[] nodes = children;
+		final int count = childCount;
+		return new AbstractList<OpenLoopNode<Move, GS>>() {
+			@Override
+			public OpenLoopNode<Move, GS> get(int index) {
+				if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Index: " + index);
+				return nodes[index];
+			}
+
+			@Override
+			public int size() {
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Run iterations from this root until the budget of the context is spent.
+	 */
+	void runPlayouts(SearchContext<Move, GS> ctx) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		OpenLoopNode<Move, GS>[] path = new OpenLoopNode[64];
+		while (ctx.budget.proceed(ctx, this, 1)) {
+			ctx.startIteration();
+			final GS state = gameState.clone();
+			OpenLoopNode<Move, GS> node = this;
+			int depth = 0;
+			boolean expanded = false;
+			while (!expanded) {
+				while (state.currentPlayer() == GameState.PLAYER_CHANCE_NODE && !state.terminated()) {
+					state.makeChanceMove();
+				}
+				if (state.terminated()) break;
+				final int player = state.currentPlayer();
+				final List<Move> moves = state.possibleMoves();
+				OpenLoopNode<Move, GS> child = node.selectChild(moves, ctx);
+				if (child == null) {
+					if (ctx.atNodeLimit()) break;
+					child = node.createChild(randomUntriedMove(node, moves), player);
+					ctx.treeNodeCount.incrementAndGet();
+					++ctx.nodesCreated;
+					expanded = true;
+				}
+				state.makeMove(child.causationMove);
+				if (++depth == path.length) path = Arrays.copyOf(path, 2 * depth);
+				path[depth] = child;
+				node = child;
+			}
+			ctx.endPhase(SearchContext.SELECTION);
+			ctx.countDepth(depth);
+			++ctx.playouts;
+			final double[] utilities = Node.playOut(state, ctx);
+			ctx.endPhase(SearchContext.PLAYOUT);
+			for (int i = 1; i <= depth; ++i) {
+				final OpenLoopNode<Move, GS> n = path[i];
+				++n.visitCount;
+				n.sumScores += utilities[n.mover];
+			}
+			++visitCount;
+			ctx.endPhase(SearchContext.BACK_PROPAGATION);
+		}
+	}
+
+	/**
+	 * Select among the children of the legal moves given.
+	 * @return the child; null if a move without a child is to be tried, or there is no child of a legal move.
+	 */
+	private OpenLoopNode<Move, GS> selectChild(List<Move> moves, SearchContext<Move, GS> ctx) {
+		final SelectionPolicy policy = ctx.selectionPolicy;
+		final boolean untried = hasUntriedMove(moves);
+		if (untried && policy.unvisitedFirst() && !ctx.atNodeLimit()) return null;
+		final double parentTerm = policy.parentTerm(visitCount);
+		final double prior = 1.0 / moves.size();
+		double maxScore = -Double.MAX_VALUE;
+		OpenLoopNode<Move, GS> selected = null;
+		for (int i = 0; i < childCount; ++i) {
+			final OpenLoopNode<Move, GS> child = children[i];
+			if (!moves.contains(child.causationMove)) continue;
+			final int visits = child.visitCount;
+			final double score = policy.score(parentTerm, visits, child.sumScores / visits, 0, prior);
+			if (score > maxScore) {
+				maxScore = score;
+				selected = child;
+			}
+		}
+		if (untried && !ctx.atNodeLimit() && policy.score(parentTerm, 0, 0, 0, prior) > maxScore) return null;
+		return selected;
+	}
+
+	private OpenLoopNode<Move, GS> findChild(Move move) {
+		for (int i = 0; i < childCount; ++i) {
+			if (children[i].causationMove.equals(move)) return children[i];
+		}
+		return null;
+	}
+
+	private boolean hasUntriedMove(List<Move> moves) {
+		if (childCount < moves.size()) return true;
+		for (int i = 0, n = moves.size(); i < n; ++i) {
+			if (findChild(moves.get(i)) == null) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return a random legal move without a child.
+	 */
+	private static <Move, GS extends GameState<Move, GS>> Move randomUntriedMove(OpenLoopNode<Move, GS> node,
+			List<Move> moves) {
+		Move chosen = null;
+		int untried = 0;
+		for (int i = 0, n = moves.size(); i < n; ++i) {
+			final Move move = moves.get(i);
+			// Reservoir sampling.
+			if (node.findChild(move) == null && ThreadLocalRandom.current().nextInt(++untried) == 0) chosen = move;
+		}
+		return chosen;
+	}
+
+	private OpenLoopNode<Move, GS> createChild(Move move, int player) {
+		final OpenLoopNode<Move, GS> child = new OpenLoopNode<>(move, null, player);
+		if (children == null) {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			final OpenLoopNode<Move, GS>[] array = new OpenLoopNode[4];
+			children = array;
+		} else if (childCount == children.length) {
+			children = Arrays.copyOf(children, 2 * childCount);
+		}
+		children[childCount++] = child;
+		return child;
+	}
+
+	/**
+	 * @return move of the child of this root with the highest mean score; null if none has been visited.
+	 */
+	Move bestMove() {
+		Move best = null;
+		double maxScore = -Double.MAX_VALUE;
+		for (int i = 0; i < childCount; ++i) {
+			final OpenLoopNode<Move, GS> child = children[i];
+			if (child.visitCount > 0 && child.sumScores / child.visitCount > maxScore) {
+				maxScore = child.sumScores / child.visitCount;
+				best = child.causationMove;
+			}
+		}
+		return best;
+	}
+}
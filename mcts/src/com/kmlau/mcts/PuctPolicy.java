@@ -0,0 +1,67 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+/**
+ * PUCT selection, weighting the exploration term of each child by the prior probability of its move.
+ *
+ * @author K M Lau
+ */
+final class PuctPolicy implements SelectionPolicy {
+	private final double exploration;
+	private final double unvisitedScore;
+
+	PuctPolicy(double exploration, double unvisitedScore) {
+		if (!(exploration >= 0)) {
+			throw new IllegalArgumentException("Exploration constant must not be negative: " + exploration);
+		}
+		this.exploration = exploration;
+		this.unvisitedScore = unvisitedScore;
+	}
+
+	@Override
+	public double parentTerm(int parentVisits) {
+		return exploration * MathTables.sqrt(parentVisits);
+	}
+
+	@Override
+	public double score(double parentTerm, int visits, double meanScore, double meanSquaredScore, double prior) {
+		return (visits > 0 ? meanScore : unvisitedScore) + parentTerm * prior / (1 + visits);
+	}
+
+	@Override
+	public boolean unvisitedFirst() {
+		return false;
+	}
+
+	@Override
+	public boolean usesPriors() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "PUCT(" + exploration + ")";
+	}
+}
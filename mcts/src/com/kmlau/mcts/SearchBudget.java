@@ -0,0 +1,195 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of a search in progress, shared by all its workers. Workers claim playouts in small batches, and check
+ * the clock and the state of their tree only between batches.
+ *
+ * @author K M Lau
+ */
+final class SearchBudget {
+	// Number of iterations a worker runs between checks of the limits.
+	static final int CHECK_INTERVAL = 16;
+
+	private final long maxPlayouts;
+	private final int maxTreeNodes;
+	private final boolean hasDeadline;
+	private final long deadlineNanos;
+	private final boolean earlyStopping;
+	private final long startNanos;
+	// Number of trees sharing the remaining budget.
+	private final int treeCount;
+
+	private final AtomicLong playoutsClaimed = new AtomicLong();
+	// Set once a limit of the whole search is reached.
+	private volatile boolean exhausted = false;
+
+	/**
+	 * @param treeCount number of search trees grown, among which the node limit and the remaining playouts are
+	 *   split.
+	 */
+	SearchBudget(SearchLimits limits, int treeCount) {
+		startNanos = System.nanoTime();
+		maxPlayouts = limits.maxPlayouts();
+		maxTreeNodes = limits.maxTreeNodes() == Integer.MAX_VALUE ? Integer.MAX_VALUE
+				: Math.max(1, limits.maxTreeNodes() / treeCount);
+		hasDeadline = limits.hasDeadline();
+		deadlineNanos = limits.deadlineNanos(startNanos);
+		earlyStopping = limits.earlyStopping();
+		this.treeCount = treeCount;
+	}
+
+	boolean hasDeadline() {
+		return hasDeadline;
+	}
+
+	/**
+	 * @return System.nanoTime() at which the search stops; meaningful only if hasDeadline().
+	 */
+	long deadlineNanos() {
+		return deadlineNanos;
+	}
+
+	/**
+	 * @return wall clock time since the start of the search.
+	 */
+	long elapsedNanos() {
+		return System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * Stop the search at the next check of the limits by each worker.
+	 */
+	void cancel() {
+		exhausted = true;
+	}
+
+	/**
+	 * @return maximum number of nodes of each search tree.
+	 */
+	int maxTreeNodes() {
+		return maxTreeNodes;
+	}
+
+	/**
+	 * Decide whether a worker should run another iteration of the search.
+	 * @param root root of the worker's search tree.
+	 * @param playoutsPerIteration number of playouts of an iteration.
+	 */
+	boolean proceed(SearchContext<?, ?> ctx, SearchTreeNode<?, ?> root, int playoutsPerIteration) {
+		if (ctx.solver && root instanceof Node && ((Node<?, ?>) root).provenUtilities() != null) {
+			// Nothing left to search: the best move is proven. Only this tree is done in root parallel search.
+			return false;
+		}
+		if (maxTreeNodes != Integer.MAX_VALUE && ctx.treeNodeCount.get() >= Math.min(maxTreeNodes, ctx.maxTreeNodes)) {
+			return false;
+		}
+		if (ctx.iterationsGranted > 0) {
+			--ctx.iterationsGranted;
+			return true;
+		}
+		if (exhausted) return false;
+		final long now = System.nanoTime();
+		// Run at least an iteration, to have a move to choose.
+		if (hasDeadline && now - deadlineNanos >= 0 && ctx.playouts > 0) {
+			exhausted = true;
+			return false;
+		}
+		long claimed, iterations;
+		do {
+			claimed = playoutsClaimed.get();
+			iterations = maxPlayouts == SearchLimits.UNLIMITED ? CHECK_INTERVAL : Math.min(CHECK_INTERVAL,
+					(maxPlayouts - claimed + playoutsPerIteration - 1) / playoutsPerIteration);
+			if (iterations <= 0) {
+				exhausted = true;
+				return false;
+			}
+		} while (!playoutsClaimed.compareAndSet(claimed, claimed + iterations * playoutsPerIteration));
+		if (earlyStopping && decided(root, remainingPlayouts(now, claimed) / treeCount)) {
+			// Only this tree is done; in root parallel search the other trees may not be.
+			return false;
+		}
+		ctx.iterationsGranted = (int) iterations - 1;
+		return true;
+	}
+
+	/**
+	 * @param claimed number of playouts claimed so far.
+	 * @return upper estimate of the playouts yet to run, or UNLIMITED if there is no playout limit nor deadline.
+	 */
+	private long remainingPlayouts(long now, long claimed) {
+		long remaining = maxPlayouts == SearchLimits.UNLIMITED ? SearchLimits.UNLIMITED : maxPlayouts - claimed;
+		if (hasDeadline) {
+			final long elapsed = now - startNanos;
+			if (claimed == 0 || elapsed <= 0) return remaining;
+			final double rate = (double) claimed / elapsed;
+			remaining = Math.min(remaining, (long) Math.ceil(rate * (deadlineNanos - now)));
+		}
+		return remaining;
+	}
+
+	/**
+	 * @return whether the root has a single child, and no other moves of which the children are yet to be created.
+	 */
+	private static boolean onlyMove(SearchTreeNode<?, ?> root) {
+		final GameState<?, ?> gameState = root.gameState();
+		return root.getChildren().size() == 1 && gameState.currentPlayer() != GameState.PLAYER_CHANCE_NODE
+				&& gameState.possibleMoves().size() == 1;
+	}
+
+	/**
+	 * @return whether the move to be chosen at the root can no longer change within the given number of playouts:
+	 *   the most visited child also has the best mean score, and leads the runner up by more visits, or it is the
+	 *   only child.
+	 */
+	private static boolean decided(SearchTreeNode<?, ?> root, long remainingPlayouts) {
+		final List<? extends SearchTreeNode<?, ?>> children = root.getChildren();
+		if (children == null || children.isEmpty()) return false;
+		if (remainingPlayouts == SearchLimits.UNLIMITED && children.size() > 1) return false;
+		int mostVisits = 0, runnerUpVisits = 0;
+		SearchTreeNode<?, ?> mostVisited = null, bestScored = null;
+		double maxScore = -Double.MAX_VALUE;
+		for (SearchTreeNode<?, ?> child : children) {
+			final int visits = child.visitCount();
+			if (visits > mostVisits) {
+				runnerUpVisits = mostVisits;
+				mostVisits = visits;
+				mostVisited = child;
+			} else if (visits > runnerUpVisits) {
+				runnerUpVisits = visits;
+			}
+			if (visits > 0 && child.sumScores() / visits > maxScore) {
+				maxScore = child.sumScores() / visits;
+				bestScored = child;
+			}
+		}
+		return mostVisited != null && mostVisited == bestScored
+				&& (onlyMove(root) || mostVisits - runnerUpVisits > remainingPlayouts);
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Options and shared data structures of a search, consulted by search tree nodes, and counters of the work done.
+ * Each worker thread of a search has its own context; contexts of workers growing the same search tree share the
+ * tree size bookkeeping.
+ *
+ * @author K M Lau
+ */
+final class SearchContext<Move, GS extends GameState<Move, GS>> {
+	/** Statistics shared among nodes of transposed game states; null if disabled. */
+	TranspositionTable transpositionTable;
+
+	/** Rule for selecting the child to descend to. */
+	SelectionPolicy selectionPolicy = SelectionPolicy.uct();
+
+	/** Whether nodes keep the sum of their squared scores, for the selection policy. */
+	boolean squaredScores;
+
+	/**
+	 * Progressive widening: a player node with n visits may have up to ceil(wideningCoefficient * n ^
+	 * wideningExponent) children; disabled if the coefficient is 0.
+	 */
+	double wideningCoefficient;
+	double wideningExponent;
+
+	/**
+	 * Double progressive widening: a chance node with n visits may have up to ceil(chanceWideningCoefficient * n ^
+	 * chanceWideningExponent) children, with outcomes drawn on demand; disabled if the coefficient is 0.
+	 */
+	double chanceWideningCoefficient;
+	double chanceWideningExponent;
+
+	/**
+	 * Number of visits at which a node's own mean score and its all-moves-as-first (AMAF) mean score weigh the same
+	 * in selection; 0 disables RAVE.
+	 */
+	int raveEquivalence;
+
+	/**
+	 * Whether the solver proves nodes of terminated game states and their ancestors by the minimax rule, and the
+	 * utility of a won game, at or above which a proven child proves its parent.
+	 */
+	boolean solver;
+	double solverWinUtility;
+
+	/** Solver of the game states of new nodes close to the end of the game, or null. */
+	EndgameSolver<GS> endgameSolver;
+
+	/**
+	 * Moves made by the players, with the players who made them, in the last playout of this context, followed by
+	 * the moves of the search tree path being back propagated. Recorded for RAVE only.
+	 */
+	Object[] playedMoves = new Object[64];
+	int[] movers = new int[64];
+	int playedMoveCount;
+
+	/**
+	 * Private copy of the game state of the search tree root, on which this context replays the moves down to the
+	 * leaf being played out, plays out, then takes all the moves back; null until first needed. Used for game
+	 * states implementing UndoableGameState, so that the game states stored in the tree are never changed.
+	 */
+	GS scratchState;
+	// Game state of which scratchState is a copy.
+	GS scratchSource;
+
+	/**
+	 * Moves from the leaf being played out up to the root, to be replayed on the scratch state: the move of a
+	 * player, or for a chance move the index of its outcome, -1 for player moves.
+	 */
+	Object[] pathMoves = new Object[64];
+	int[] pathOutcomes = new int[64];
+	int pathLength;
+
+	/** Undo tokens of the path moves replayed on the scratch state, grown as needed. */
+	long[] pathUndoTokens = new long[64];
+
+	/** Number of moves, including chance moves, after which a playout stops and is scored by the evaluator. */
+	int rolloutDepth = Integer.MAX_VALUE;
+
+	/** Evaluator of the game states at which playouts stop short; null if playouts run to the end. */
+	StateEvaluator<GS> evaluator;
+
+	/** Undo tokens of a playout on the scratch state, grown as needed. */
+	long[] undoTokens = new long[64];
+
+	/** Number of nodes in the search tree. */
+	AtomicInteger treeNodeCount;
+
+	/** Maximum number of nodes in the search tree. */
+	int maxTreeNodes = Integer.MAX_VALUE;
+
+	/** Whether to prune the search tree, rather than stop expanding it, when it reaches maxTreeNodes. */
+	boolean pruneAtNodeLimit;
+
+	/** Held by the worker pruning the search tree. */
+	AtomicBoolean pruning;
+
+	/** Budget of the search, shared by all workers. */
+	SearchBudget budget;
+
+	/** Iterations this worker may run before checking the budget again. */
+	int iterationsGranted;
+
+	/** Contexts of the extra playouts of a leaf under leaf parallelism, run on other threads. */
+	SearchContext<Move, GS>[] leafPlayoutContexts;
+
+	// Phases of an iteration, indices into phaseNanos.
+	static final int SELECTION = 0;
+	static final int EXPANSION = 1;
+	static final int PLAYOUT = 2;
+	static final int BACK_PROPAGATION = 3;
+
+	// One in this many iterations is timed phase by phase; a power of 2.
+	private static final int PHASE_SAMPLE_INTERVAL = 16;
+
+	// Counters of this worker.
+	long playouts;
+	long nodesCreated;
+	long nodesPruned;
+	long iterations;
+	long depthSum;
+	int maxDepth;
+	long rollouts;
+	long rolloutMoves;
+	int maxRolloutMoves;
+
+	// Time spent in each phase of the sampled iterations.
+	long sampledIterations;
+	final long[] phaseNanos = new long[4];
+	private boolean timingIteration;
+	private long phaseStartNanos;
+
+	/**
+	 * Record a move of the current playout for RAVE.
+	 */
+	void recordMove(Object move, int mover) {
+		if (playedMoveCount == playedMoves.length) {
+			playedMoves = Arrays.copyOf(playedMoves, 2 * playedMoveCount);
+			movers = Arrays.copyOf(movers, 2 * playedMoveCount);
+		}
+		playedMoves[playedMoveCount] = move;
+		movers[playedMoveCount++] = mover;
+	}
+
+	/**
+	 * Record the next move up the path from the leaf being played out.
+	 * @param outcome index of the outcome of a chance move, or -1 for the move of a player.
+	 */
+	void recordPathMove(Object move, int outcome) {
+		if (pathLength == pathMoves.length) {
+			pathMoves = Arrays.copyOf(pathMoves, 2 * pathLength);
+			pathOutcomes = Arrays.copyOf(pathOutcomes, 2 * pathLength);
+		}
+		pathMoves[pathLength] = move;
+		pathOutcomes[pathLength++] = outcome;
+	}
+
+	/**
+	 * @return whether the given player made the given move in the recorded moves.
+	 */
+	boolean played(Object move, int mover) {
+		for (int i = 0; i < playedMoveCount; ++i) {
+			final Object m = playedMoves[i];
+			if (movers[i] == mover && (m == move || m.equals(move))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Blend the mean score of a node with its AMAF mean score, which weighs less as the node gets more visits:
+	 * beta = sqrt(k / (3 * visits + k)), where k is raveEquivalence.
+	 */
+	double raveMeanScore(int visits, double meanScore, int amafVisits, double amafSumScores) {
+		if (amafVisits == 0) return meanScore;
+		final double beta = Math.sqrt(raveEquivalence / (3.0 * visits + raveEquivalence));
+		return (1 - beta) * meanScore + beta * amafSumScores / amafVisits;
+	}
+
+	/**
+	 * @return number of children a player node of the given visit count may have under progressive widening.
+	 */
+	int childrenAllowed(int visits) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.ceil(wideningCoefficient * Math.pow(visits, wideningExponent)));
+	}
+
+	/**
+	 * @return number of children a chance node of the given visit count may have under double progressive widening.
+	 */
+	int chanceChildrenAllowed(int visits) {
+		return (int) Math.min(Integer.MAX_VALUE,
+				Math.ceil(chanceWideningCoefficient * Math.pow(visits, chanceWideningExponent)));
+	}
+
+	boolean atNodeLimit() {
+		return treeNodeCount.get() >= maxTreeNodes;
+	}
+
+	/**
+	 * Count an iteration, and start timing its phases if it is sampled.
+	 */
+	void startIteration() {
+		timingIteration = (++iterations & (PHASE_SAMPLE_INTERVAL - 1)) == 0;
+		if (timingIteration) {
+			++sampledIterations;
+			phaseStartNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * End a phase of the current iteration, which starts the next one.
+	 * @param phase SELECTION, EXPANSION, PLAYOUT or BACK_PROPAGATION.
+	 */
+	void endPhase(int phase) {
+		if (timingIteration) {
+			final long now = System.nanoTime();
+			phaseNanos[phase] += now - phaseStartNanos;
+			phaseStartNanos = now;
+		}
+	}
+
+	/**
+	 * @param depth depth below the root of the node played out in an iteration.
+	 */
+	void countDepth(int depth) {
+		depthSum += depth;
+		if (depth > maxDepth) maxDepth = depth;
+	}
+
+	/**
+	 * @param moves number of moves, including chance moves, of a playout.
+	 */
+	void countRollout(int moves) {
+		++rollouts;
+		rolloutMoves += moves;
+		if (moves > maxRolloutMoves) maxRolloutMoves = moves;
+	}
+}
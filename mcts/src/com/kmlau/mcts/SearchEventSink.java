@@ -0,0 +1,67 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+/**
+ * Records an event per search with its statistics, for correlation with other events, e.g. garbage collections,
+ * on a timeline. The implementation for JDK Flight Recorder, an API beyond Java 8, is compiled from a separate
+ * source directory and used when present and supported by the runtime.
+ *
+ * @author K M Lau
+ */
+interface SearchEventSink {
+	SearchEventSink NONE = new SearchEventSink() {
+		@Override
+		public Object begin() {
+			return null;
+		}
+
+		@Override
+		public void commit(Object event, SearchStats<?> stats) {
+		}
+	};
+
+	/**
+	 * @return event of a search starting now, or null if not recorded.
+	 */
+	Object begin();
+
+	/**
+	 * End an event returned by begin(), if not null, and record it with the statistics of the search.
+	 */
+	void commit(Object event, SearchStats<?> stats);
+
+	/**
+	 * @return the JDK Flight Recorder sink if available, else NONE.
+	 */
+	static SearchEventSink load() {
+		try {
+			return (SearchEventSink) Class.forName("com.kmlau.mcts.JfrSearchEventSink")
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return NONE;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits of a search: any mix of a number of playouts, a number of search tree nodes and a deadline. The search
+ * stops at whichever limit is reached first, or earlier if early stopping is enabled and the move to be chosen can
+ * no longer change within the remaining budget. Even past its deadline, a search runs an iteration at least.
+ *
+ * @author K M Lau
+ */
+public final class SearchLimits {
+	static final long UNLIMITED = Long.MAX_VALUE;
+
+	private final long maxPlayouts;
+	private final int maxTreeNodes;
+	private final boolean hasDeadline;
+	private final long deadlineNanos;
+	private final long timeAllowedNanos;
+	private final boolean earlyStopping;
+
+	private SearchLimits(Builder b) {
+		maxPlayouts = b.maxPlayouts;
+		maxTreeNodes = b.maxTreeNodes;
+		hasDeadline = b.hasDeadline;
+		deadlineNanos = b.deadlineNanos;
+		timeAllowedNanos = b.timeAllowedNanos;
+		earlyStopping = b.earlyStopping;
+	}
+
+	/**
+	 * @return limits of a search that runs until its budget is cancelled.
+	 */
+	static SearchLimits untilCancelled() {
+		return new SearchLimits(new Builder().setEarlyStopping(false));
+	}
+
+	/**
+	 * @return maximum number of playouts, or UNLIMITED.
+	 */
+	long maxPlayouts() {
+		return maxPlayouts;
+	}
+
+	/**
+	 * @return maximum number of search tree nodes, or Integer.MAX_VALUE.
+	 */
+	int maxTreeNodes() {
+		return maxTreeNodes;
+	}
+
+	boolean hasDeadline() {
+		return hasDeadline || timeAllowedNanos != UNLIMITED;
+	}
+
+	/**
+	 * @param startNanos System.nanoTime() at the start of the search.
+	 * @return deadline in System.nanoTime() terms; meaningful only if hasDeadline().
+	 */
+	long deadlineNanos(long startNanos) {
+		if (timeAllowedNanos == UNLIMITED) return deadlineNanos;
+		final long relativeDeadline = startNanos + timeAllowedNanos;
+		return hasDeadline && deadlineNanos - relativeDeadline < 0 ? deadlineNanos : relativeDeadline;
+	}
+
+	boolean earlyStopping() {
+		return earlyStopping;
+	}
+
+	public static class Builder {
+		private long maxPlayouts = UNLIMITED;
+		private int maxTreeNodes = Integer.MAX_VALUE;
+		private boolean hasDeadline = false;
+		private long deadlineNanos;
+		private long timeAllowedNanos = UNLIMITED;
+		private boolean earlyStopping = true;
+
+		/**
+		 * @param playouts number of playouts after which the search stops. With leaf parallelism each leaf counts
+		 *   as that many playouts.
+		 */
+		public Builder setMaxPlayouts(long playouts) {
+			if (playouts < 1) {
+				throw new IllegalArgumentException("Maximum playout count must be positive: " + playouts);
+			}
+			maxPlayouts = playouts;
+			return this;
+		}
+
+		/**
+		 * @param nodes number of search tree nodes at which the search stops, or the memory budget of the search if
+		 *   lower. Split evenly among the trees in root parallel search. Combine with a playout or time limit if the
+		 *   whole game tree may be smaller.
+		 */
+		public Builder setMaxTreeNodes(int nodes) {
+			if (nodes < 1) {
+				throw new IllegalArgumentException("Maximum node count must be positive: " + nodes);
+			}
+			maxTreeNodes = nodes;
+			return this;
+		}
+
+		/**
+		 * @param deadline value of System.nanoTime() at which the search stops.
+		 */
+		public Builder setDeadlineNanos(long deadline) {
+			hasDeadline = true;
+			deadlineNanos = deadline;
+			return this;
+		}
+
+		/**
+		 * @param time time the search may take, counted from its start.
+		 */
+		public Builder setTimeAllowed(long time, TimeUnit unit) {
+			if (time < 0) {
+				throw new IllegalArgumentException("Time allowed must not be negative: " + time);
+			}
+			timeAllowedNanos = Math.min(unit.toNanos(time), UNLIMITED - 1);
+			return this;
+		}
+
+		/**
+		 * @param enabled whether to stop as soon as the most visited child of the root, if it also has the best
+		 *   mean score, leads the runner up by more visits than the remaining playouts. The remaining playouts are
+		 *   estimated from the playout rate so far when the search has a deadline. Defaults to true.
+		 */
+		public Builder setEarlyStopping(boolean enabled) {
+			earlyStopping = enabled;
+			return this;
+		}
+
+		public SearchLimits build() {
+			if (maxPlayouts == UNLIMITED && maxTreeNodes == Integer.MAX_VALUE && !hasDeadline
+					&& timeAllowedNanos == UNLIMITED) {
+				throw new IllegalStateException("Search has no limit.");
+			}
+			return new SearchLimits(this);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs asynchronous searches of many games on a fixed number of worker threads. Each search advances in short
+ * time slices. Searches past their deadline run first, earliest deadline first, so that they finish at once; the
+ * others take turns in round robin, so that they all progress at the same pace however many are in flight.
+ * Workers are virtual threads on Java runtimes that have them, platform daemon threads otherwise.
+ *
+ * @author K M Lau
+ */
+public final class SearchScheduler {
+	/**
+	 * A search advanced slice by slice.
+	 */
+	interface Task {
+		boolean hasDeadline();
+
+		/**
+		 * @return System.nanoTime() by which the search must finish, if it has a deadline.
+		 */
+		long deadlineNanos();
+
+		/**
+		 * Advance the search until about the given time.
+		 * @return whether the search has more work to do.
+		 */
+		boolean runSlice(long sliceEndNanos);
+
+		/**
+		 * Abandon the search for the given reason.
+		 */
+		void abort(Throwable reason);
+	}
+
+	// Length of a time slice.
+	private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final AtomicInteger schedulerCount = new AtomicInteger();
+	private static SearchScheduler common;
+
+	/**
+	 * A submitted task, queued for its next time slice or running one.
+	 */
+	private static final class Scheduled implements Comparable<Scheduled> {
+		final Task task;
+		final long deadlineNanos;
+		final long sequence;
+		// Entry in the run queue while waiting for a time slice, null while running.
+		Entry waiting;
+
+		Scheduled(Task task, long sequence) {
+			this.task = task;
+			this.deadlineNanos = task.deadlineNanos();
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Scheduled that) {
+			// Compare by difference, as System.nanoTime() values may wrap around.
+			final long d = deadlineNanos - that.deadlineNanos;
+			return d != 0 ? (d < 0 ? -1 : 1) : Long.compare(sequence, that.sequence);
+		}
+	}
+
+	/**
+	 * Place of a task in the run queue; left behind as taken when the task is run out of turn.
+	 */
+	private static final class Entry {
+		final Scheduled scheduled;
+		boolean taken = false;
+
+		Entry(Scheduled scheduled) {
+			this.scheduled = scheduled;
+		}
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	// Tasks waiting for a time slice, in round robin order.
+	private final ArrayDeque<Entry> runQueue = new ArrayDeque<>();
+	private int waitingCount = 0;
+	// Tasks with a deadline, waiting or running, earliest deadline first.
+	private final PriorityQueue<Scheduled> deadlines = new PriorityQueue<>();
+	private long sequence = 0;
+	private boolean shutdown = false;
+	private final Thread[] workers;
+
+	/**
+	 * @return scheduler shared by default, with a worker per available processor. Its workers never need to be
+	 *   shut down.
+	 */
+	public static synchronized SearchScheduler common() {
+		if (common == null) {
+			common = new SearchScheduler(Runtime.getRuntime().availableProcessors());
+		}
+		return common;
+	}
+
+	/**
+	 * @param workerCount number of searches run at a time; normally the number of processors set aside for search.
+	 */
+	public SearchScheduler(int workerCount) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+		}
+		final ThreadFactory threadFactory = newThreadFactory();
+		final int id = schedulerCount.incrementAndGet();
+		workers = new Thread[workerCount];
+		for (int i = 0; i < workerCount; ++i) {
+			workers[i] = threadFactory.newThread(this::work);
+			workers[i].setName("mcts-scheduler-" + id + "-" + i);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * @return factory of virtual threads if the runtime has them, else of platform daemon threads. Looked up by
+	 *   reflection, as the code targets Java 8.
+	 */
+	private static ThreadFactory newThreadFactory() {
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return runnable -> {
+				Thread t = new Thread(runnable);
+				t.setDaemon(true);
+				return t;
+			};
+		}
+	}
+
+	void submit(Task task) {
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new RejectedExecutionException("Search scheduler has been shut down.");
+			}
+			final Scheduled scheduled = new Scheduled(task, sequence++);
+			if (task.hasDeadline()) deadlines.add(scheduled);
+			enqueue(scheduled);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Call with the lock held.
+	private void enqueue(Scheduled scheduled) {
+		scheduled.waiting = new Entry(scheduled);
+		runQueue.add(scheduled.waiting);
+		++waitingCount;
+		notEmpty.signal();
+	}
+
+	/**
+	 * Take the task to run next: the one with the earliest deadline if passed, else the one at the head of the run
+	 * queue. Call with the lock held, and some task waiting.
+	 */
+	private Scheduled take() {
+		final Scheduled earliest = deadlines.peek();
+		Entry entry;
+		if (earliest != null && earliest.waiting != null && earliest.deadlineNanos - System.nanoTime() <= 0) {
+			entry = earliest.waiting;
+		} else {
+			do {
+				entry = runQueue.poll();
+			} while (entry.taken);
+		}
+		entry.taken = true;
+		entry.scheduled.waiting = null;
+		--waitingCount;
+		return entry.scheduled;
+	}
+
+	private void work() {
+		while (true) {
+			final Scheduled scheduled;
+			lock.lock();
+			try {
+				while (waitingCount == 0 && !shutdown) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (shutdown) return;
+				scheduled = take();
+			} finally {
+				lock.unlock();
+			}
+			boolean more;
+			try {
+				more = scheduled.task.runSlice(System.nanoTime() + SLICE_NANOS);
+			} catch (Throwable e) {
+				scheduled.task.abort(e);
+				more = false;
+			}
+			lock.lock();
+			try {
+				if (more && !shutdown) {
+					enqueue(scheduled);
+					continue;
+				}
+				deadlines.remove(scheduled);
+			} finally {
+				lock.unlock();
+			}
+			if (more) {
+				scheduled.task.abort(new RejectedExecutionException("Search scheduler has been shut down."));
+			}
+		}
+	}
+
+	/**
+	 * Stop the workers after their current time slices, and abort the searches waiting for their turn.
+	 */
+	public void shutdown() {
+		final List<Task> waiting = new ArrayList<>();
+		lock.lock();
+		try {
+			shutdown = true;
+			for (Entry entry : runQueue) {
+				if (!entry.taken) waiting.add(entry.scheduled.task);
+			}
+			runQueue.clear();
+			deadlines.clear();
+			waitingCount = 0;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		// Outside the lock, as aborting runs the callbacks of the futures of the searches.
+		for (Task task : waiting) {
+			task.abort(new RejectedExecutionException("Search scheduler has been shut down."));
+		}
+		synchronized (SearchScheduler.class) {
+			if (common == this) common = null;
+		}
+	}
+}
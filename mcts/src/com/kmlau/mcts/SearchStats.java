@@ -0,0 +1,221 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics of a completed search. Times of the search phases are estimated from a sample of the iterations, and
+ * summed over the workers in parallel search.
+ *
+ * @author K M Lau
+ */
+public final class SearchStats<Move> {
+	private final long elapsedNanos;
+	private final long playouts;
+	private final long nodesCreated;
+	private final long nodesPruned;
+	private final long iterations;
+	private final long depthSum;
+	private final int maxDepth;
+	private final long rollouts;
+	private final long rolloutMoves;
+	private final int maxRolloutMoves;
+	private final long[] phaseNanos;
+	private final Map<Move, Integer> rootVisitCounts;
+
+	private SearchStats(List<? extends SearchContext<?, ?>> contexts, long elapsedNanos,
+			Map<Move, Integer> rootVisitCounts) {
+		this.elapsedNanos = elapsedNanos;
+		this.rootVisitCounts = rootVisitCounts;
+		long playouts = 0, nodesCreated = 0, nodesPruned = 0, iterations = 0, depthSum = 0, rollouts = 0;
+		long rolloutMoves = 0, sampledIterations = 0;
+		int maxDepth = 0, maxRolloutMoves = 0;
+		final long[] sampledPhaseNanos = new long[4];
+		for (SearchContext<?, ?> ctx : contexts) {
+			playouts += ctx.playouts;
+			nodesCreated += ctx.nodesCreated;
+			nodesPruned += ctx.nodesPruned;
+			iterations += ctx.iterations;
+			depthSum += ctx.depthSum;
+			maxDepth = Math.max(maxDepth, ctx.maxDepth);
+			rollouts += ctx.rollouts;
+			rolloutMoves += ctx.rolloutMoves;
+			maxRolloutMoves = Math.max(maxRolloutMoves, ctx.maxRolloutMoves);
+			sampledIterations += ctx.sampledIterations;
+			for (int phase = 0; phase < sampledPhaseNanos.length; ++phase) {
+				sampledPhaseNanos[phase] += ctx.phaseNanos[phase];
+			}
+		}
+		this.playouts = playouts;
+		this.nodesCreated = nodesCreated;
+		this.nodesPruned = nodesPruned;
+		this.iterations = iterations;
+		this.depthSum = depthSum;
+		this.maxDepth = maxDepth;
+		this.rollouts = rollouts;
+		this.rolloutMoves = rolloutMoves;
+		this.maxRolloutMoves = maxRolloutMoves;
+		phaseNanos = new long[sampledPhaseNanos.length];
+		if (sampledIterations > 0) {
+			for (int phase = 0; phase < phaseNanos.length; ++phase) {
+				phaseNanos[phase] = (long) ((double) sampledPhaseNanos[phase] * iterations / sampledIterations);
+			}
+		}
+	}
+
+	/**
+	 * Sum up the counters of the search contexts of all workers of a search.
+	 * @param root root of the search tree; in root parallel search, the one with the merged statistics.
+	 * @param elapsedNanos wall clock time of the search.
+	 */
+	static <Move> SearchStats<Move> of(List<? extends SearchContext<?, ?>> contexts,
+			SearchTreeNode<Move, ?> root, long elapsedNanos) {
+		final List<? extends SearchTreeNode<Move, ?>> children = root.getChildren();
+		final List<SearchTreeNode<Move, ?>> byVisits = children != null
+				? new ArrayList<SearchTreeNode<Move, ?>>(children) : new ArrayList<SearchTreeNode<Move, ?>>();
+		Collections.sort(byVisits, new Comparator<SearchTreeNode<Move, ?>>() {
+			@Override
+			public int compare(SearchTreeNode<Move, ?> a, SearchTreeNode<Move, ?> b) {
+				return Integer.compare(b.visitCount(), a.visitCount());
+			}
+		});
+		final Map<Move, Integer> rootVisitCounts = new LinkedHashMap<>();
+		for (SearchTreeNode<Move, ?> child : byVisits) {
+			rootVisitCounts.put(child.causationMove(), child.visitCount());
+		}
+		return new SearchStats<>(contexts, elapsedNanos, Collections.unmodifiableMap(rootVisitCounts));
+	}
+
+	/**
+	 * @return wall clock time of the search in nanoseconds.
+	 */
+	public long elapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return number of playouts run.
+	 */
+	public long playouts() {
+		return playouts;
+	}
+
+	public double playoutsPerSecond() {
+		return elapsedNanos > 0 ? playouts * 1e9 / elapsedNanos : 0;
+	}
+
+	/**
+	 * @return number of search tree nodes created.
+	 */
+	public long nodesCreated() {
+		return nodesCreated;
+	}
+
+	/**
+	 * @return number of search tree nodes pruned to stay within the memory budget.
+	 */
+	public long nodesPruned() {
+		return nodesPruned;
+	}
+
+	/**
+	 * @return greatest depth below the root of a node played out.
+	 */
+	public int maxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return mean depth below the root of the nodes played out.
+	 */
+	public double averageDepth() {
+		return iterations > 0 ? (double) depthSum / iterations : 0;
+	}
+
+	/**
+	 * @return greatest number of moves, including chance moves, of a playout.
+	 */
+	public int maxRolloutLength() {
+		return maxRolloutMoves;
+	}
+
+	/**
+	 * @return mean number of moves, including chance moves, of the playouts.
+	 */
+	public double averageRolloutLength() {
+		return rollouts > 0 ? (double) rolloutMoves / rollouts : 0;
+	}
+
+	/**
+	 * @return estimated time spent descending the tree to a node to expand.
+	 */
+	public long selectionNanos() {
+		return phaseNanos[SearchContext.SELECTION];
+	}
+
+	/**
+	 * @return estimated time spent creating child nodes.
+	 */
+	public long expansionNanos() {
+		return phaseNanos[SearchContext.EXPANSION];
+	}
+
+	/**
+	 * @return estimated time spent in playouts.
+	 */
+	public long playoutNanos() {
+		return phaseNanos[SearchContext.PLAYOUT];
+	}
+
+	/**
+	 * @return estimated time spent updating the statistics of the nodes along the paths played out.
+	 */
+	public long backPropagationNanos() {
+		return phaseNanos[SearchContext.BACK_PROPAGATION];
+	}
+
+	/**
+	 * @return visit counts of the children of the root by move, most visited first.
+	 */
+	public Map<Move, Integer> rootVisitCounts() {
+		return rootVisitCounts;
+	}
+
+	public String toString() {
+		return "playouts: " + playouts + " (" + Math.round(playoutsPerSecond()) + "/s)"
+				+ ", nodes created: " + nodesCreated + ", nodes pruned: " + nodesPruned
+				+ ", depth: " + String.format("%.1f", averageDepth()) + " mean, " + maxDepth + " max"
+				+ ", rollout length: " + String.format("%.1f", averageRolloutLength()) + " mean, " + maxRolloutMoves + " max"
+				+ ", time (ms) selection: " + selectionNanos() / 1000000 + ", expansion: " + expansionNanos() / 1000000
+				+ ", playout: " + playoutNanos() / 1000000 + ", back propagation: " + backPropagationNanos() / 1000000
+				+ ", root visits: " + rootVisitCounts;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+import java.util.List;
+
+/**
+ * Read-only view of a node of a search tree, for inspecting the result of a search.
+ *
+ * @param <Move> The class representing allowed moves by a real non-chance-node player.
+ * @param <GS> The game state class
+ * @author K M Lau
+ */
+public interface SearchTreeNode<Move, GS extends GameState<Move, GS>> {
+	/**
+	 * @return number of playouts through this node.
+	 */
+	int visitCount();
+
+	/**
+	 * @return sum of the utilities of the playouts through this node, for the player who moved into this node.
+	 */
+	double sumScores();
+
+	/**
+	 * @return the move leading to this node; null for the root and the outcomes of chance moves.
+	 */
+	Move causationMove();
+
+	GS gameState();
+
+	/**
+	 * @return children of this node; null if the node has not been expanded. Children may be created only as they
+	 *   are first visited, so moves not visited yet may have no child.
+	 */
+	List<? extends SearchTreeNode<Move, GS>> getChildren();
+}
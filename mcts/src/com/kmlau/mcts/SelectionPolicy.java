@@ -0,0 +1,114 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+/**
+ * Rule by which the search descends the tree: each child of a node is scored by the statistics of its playouts,
+ * and the child with the highest score is selected. Scoring runs for every child at every level of every
+ * iteration, so implementations should neither allocate nor compute anything per child that can be computed once
+ * per node.
+ *
+ * @author K M Lau
+ */
+public interface SelectionPolicy {
+	/** Exploration constant of UCT, sqrt(2). */
+	double DEFAULT_UCT_EXPLORATION = Math.sqrt(2);
+
+	/**
+	 * @return UCT with the exploration constant sqrt(2). This is the default policy.
+	 */
+	static SelectionPolicy uct() {
+		return UctPolicy.DEFAULT;
+	}
+
+	/**
+	 * Upper confidence bounds applied to trees: mean score + c * sqrt(ln(parent visits) / visits). Unvisited
+	 * children are selected first.
+	 * @param exploration the constant c; larger values favour less visited children.
+	 */
+	static SelectionPolicy uct(double exploration) {
+		return new UctPolicy(exploration);
+	}
+
+	/**
+	 * UCB1-Tuned: like UCT, but the exploration term of a child is bounded by the observed variance of its
+	 * scores, so that children with consistent results are explored less:
+	 * mean + c * sqrt(ln(parent visits) / visits * min(1/4, variance + sqrt(2 ln(parent visits) / visits))).
+	 * The bound of 1/4 is the largest variance of utilities within [0, 1]; scale c for utilities of a wider range.
+	 * Needs the sum of the squared scores of each node, which costs a little more in back propagation.
+	 * @param exploration the constant c, 1 in the original formula.
+	 */
+	static SelectionPolicy ucb1Tuned(double exploration) {
+		return new Ucb1TunedPolicy(exploration);
+	}
+
+	/**
+	 * Predictor + UCT, as in AlphaZero: mean + c * prior * sqrt(parent visits) / (1 + visits), where the prior
+	 * probability of a move comes from GameState.movePriors(), uniform if not implemented. Unvisited children are
+	 * not selected first; they are scored with the given mean score, so that moves of low prior may never be
+	 * tried.
+	 * @param exploration the constant c.
+	 * @param unvisitedScore mean score assumed for unvisited children, e.g. the utility of a draw.
+	 */
+	static SelectionPolicy puct(double exploration, double unvisitedScore) {
+		return new PuctPolicy(exploration, unvisitedScore);
+	}
+
+	/**
+	 * @param parentVisits visit count of the node whose children are scored, positive.
+	 * @return the part of the scores that depends only on the parent, passed to score() for each child.
+	 */
+	double parentTerm(int parentVisits);
+
+	/**
+	 * @param parentTerm the value of parentTerm() for the parent.
+	 * @param visits visit count of the child; zero only if unvisitedFirst() is false.
+	 * @param meanScore mean score of the child; 0 if not visited.
+	 * @param meanSquaredScore mean of the squared scores of the child if usesSquaredScores(), else 0.
+	 * @param prior prior probability of the move into the child.
+	 * @return score of the child; the child with the highest score is selected.
+	 */
+	double score(double parentTerm, int visits, double meanScore, double meanSquaredScore, double prior);
+
+	/**
+	 * @return whether unvisited children are selected, at random, before any visited child is scored.
+	 */
+	default boolean unvisitedFirst() {
+		return true;
+	}
+
+	/**
+	 * @return whether score() uses the mean of the squared scores.
+	 */
+	default boolean usesSquaredScores() {
+		return false;
+	}
+
+	/**
+	 * @return whether score() uses the prior probabilities of moves; if not, they are not computed.
+	 */
+	default boolean usesPriors() {
+		return false;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+/**
+ * Fixed capacity table of visit statistics keyed by Zobrist hashes of game states, so that search tree nodes of
+ * the same game state reached through different move orders share what has been learnt about it.
+ * Statistics are from the perspective of the player who made the move into the game state, which is assumed to be
+ * determined by the game state itself, e.g. hashes include the player to move.
+ * Each hash maps to a bucket of two entries; when both hold other hashes, the less visited entry is replaced.
+ *
+ * @author K M Lau
+ */
+final class TranspositionTable {
+	private static final int LOCK_STRIPES = 64;
+
+	private final long[] keys;
+	private final int[] visitCounts;
+	private final double[] sumScores;
+	private final int bucketMask;
+	// Striped locks keep the entries consistent when threads of a parallel search share the table.
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/**
+	 * @param capacity maximum number of entries, rounded up to a power of two.
+	 */
+	TranspositionTable(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity too small: " + capacity);
+		}
+		final int size = Integer.highestOneBit(capacity - 1) << 1;
+		keys = new long[size];
+		visitCounts = new int[size];
+		sumScores = new double[size];
+		bucketMask = size - 2;
+		for (int i = 0; i < LOCK_STRIPES; ++i) locks[i] = new Object();
+	}
+
+	private static int bucket(long key, int mask) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	/**
+	 * Add the result of playouts through a game state.
+	 * @param key Zobrist hash of the game state.
+	 * @param visits number of playouts.
+	 * @param score sum of the utilities of the playouts.
+	 */
+	void add(long key, int visits, double score) {
+		final int b = bucket(key, bucketMask);
+		synchronized (locks[(b >>> 1) & (LOCK_STRIPES - 1)]) {
+			int i = b;
+			if (!(visitCounts[i] > 0 && keys[i] == key)) {
+				final int j = b + 1;
+				if (visitCounts[j] > 0 && keys[j] == key) {
+					i = j;
+				} else {
+					// Evict the less visited entry of the bucket.
+					if (visitCounts[j] < visitCounts[i]) i = j;
+					keys[i] = key;
+					visitCounts[i] = 0;
+					sumScores[i] = 0;
+				}
+			}
+			visitCounts[i] += visits;
+			sumScores[i] += score;
+		}
+	}
+
+	/**
+	 * @param key Zobrist hash of a game state.
+	 * @param minVisits only an entry with more visits than this counts.
+	 * @return mean score of the game state, or NaN if there is no entry of the game state with enough visits.
+	 */
+	double meanScore(long key, int minVisits) {
+		final int b = bucket(key, bucketMask);
+		synchronized (locks[(b >>> 1) & (LOCK_STRIPES - 1)]) {
+			for (int i = b; i <= b + 1; ++i) {
+				if (keys[i] == key && visitCounts[i] > minVisits) {
+					return sumScores[i] / visitCounts[i];
+				}
+			}
+		}
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of game states, for saving search trees to files and loading them back. Only the root and the
+ * children of chance nodes of game states without indexed chance outcomes are saved with their game states; the
+ * others are rebuilt by making the saved moves and chance outcomes.
+ *
+ * @param <GS> The game state class
+ * @author K M Lau
+ */
+public interface TreeCodec<GS extends GameState<?, GS>> {
+	/**
+	 * @return maximum number of bytes of an encoded game state, at most 4096.
+	 */
+	int maxStateBytes();
+
+	/**
+	 * Encode a game state at the position of the buffer, which has at least maxStateBytes() bytes remaining.
+	 */
+	void writeState(GS gameState, ByteBuffer buffer);
+
+	/**
+	 * Decode a game state from the position of the buffer.
+	 */
+	GS readState(ByteBuffer buffer);
+}
@@ -0,0 +1,209 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Saves search trees to channels and loads them back, through a direct buffer and without recursion.
+ * <p>
+ * The format is a header, the game state of the root, then the nodes in depth-first preorder. A node is its
+ * identification among the children of its parent, save for the root, followed by its visit count, sum of scores,
+ * sum of squared scores and all-moves-as-first statistics if kept, and its number of children, -1 if unexpanded.
+ * A child is identified by the index of its move or chance outcome, or else by its game state.
+ *
+ * @author K M Lau
+ */
+final class TreeSerializer {
+	private static final long MAGIC = 0x4d43545354726565L; // "MCTSTree"
+	private static final int VERSION = 1;
+	private static final int SQUARED_SCORES = 1;
+	private static final int AMAF = 2;
+	private static final int BUFFER_BYTES = 1 << 16;
+	// Bytes of a node but its identification: every statistic and the number of children.
+	private static final int MAX_NODE_BYTES = 4 + 8 + 8 + 4 + 8 + 4;
+	private static final int INITIAL_STACK_DEPTH = 64;
+
+	private TreeSerializer() {
+	}
+
+	/**
+	 * Write the tree rooted at the given node, which must not be searched meanwhile.
+	 * @param squaredScores whether to save the sums of squared scores.
+	 * @param amaf whether to save the all-moves-as-first statistics.
+	 */
+	static <Move, GS extends GameState<Move, GS>> void write(Node<Move, GS> root, TreeCodec<GS> codec,
+			boolean squaredScores, boolean amaf, WritableByteChannel channel) throws IOException {
+		checkCodec(codec);
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		buffer.putLong(MAGIC).putInt(VERSION).putInt((squaredScores ? SQUARED_SCORES : 0) | (amaf ? AMAF : 0));
+		codec.writeState(root.gameState(), buffer);
+		writeStatistics(root, squaredScores, amaf, buffer);
+		// Nodes on the path from the root, their children, and the index of the next child to write of each.
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<Move, GS>[] parentStack = new Node[INITIAL_STACK_DEPTH];
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		List<Node<Move, GS>>[] childrenStack = new List[INITIAL_STACK_DEPTH];
+		int[] nextChildStack = new int[INITIAL_STACK_DEPTH];
+		int depth = 0;
+		if (root.getChildren() != null) {
+			childrenStack[0] = root.getChildren();
+			parentStack[0] = root;
+			depth = 1;
+		}
+		while (depth > 0) {
+			final List<Node<Move, GS>> children = childrenStack[depth - 1];
+			final int next = nextChildStack[depth - 1]++;
+			if (next == children.size()) {
+				parentStack[--depth] = null;
+				childrenStack[depth] = null;
+				nextChildStack[depth] = 0;
+				continue;
+			}
+			final Node<Move, GS> parent = parentStack[depth - 1];
+			final Node<Move, GS> node = children.get(next);
+			if (buffer.remaining() < Math.max(4, codec.maxStateBytes()) + MAX_NODE_BYTES) flush(buffer, channel);
+			if (parent.childrenSavedByState()) {
+				codec.writeState(node.gameState(), buffer);
+			} else {
+				buffer.putInt(parent.savedChildIndex(node));
+			}
+			writeStatistics(node, squaredScores, amaf, buffer);
+			if (node.getChildren() != null) {
+				if (depth == parentStack.length) {
+					parentStack = Arrays.copyOf(parentStack, 2 * depth);
+					childrenStack = Arrays.copyOf(childrenStack, 2 * depth);
+					nextChildStack = Arrays.copyOf(nextChildStack, 2 * depth);
+				}
+				parentStack[depth] = node;
+				childrenStack[depth] = node.getChildren();
+				++depth;
+			}
+		}
+		flush(buffer, channel);
+	}
+
+	private static void writeStatistics(Node<?, ?> node, boolean squaredScores, boolean amaf, ByteBuffer buffer) {
+		buffer.putInt(node.visitCount()).putDouble(node.sumScores());
+		if (squaredScores) buffer.putDouble(node.sumSquaredScores());
+		if (amaf) buffer.putInt(node.amafVisitCount()).putDouble(node.amafSumScores());
+		final List<?> children = node.getChildren();
+		buffer.putInt(children != null ? children.size() : -1);
+	}
+
+	private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Read a tree written by write(). Its nodes are expanded and created as by the search in the given context,
+	 * with the saved statistics.
+	 * @return root of the tree.
+	 * @throws IOException if the channel fails, or its content is not a valid tree.
+	 */
+	static <Move, GS extends GameState<Move, GS>> Node<Move, GS> read(TreeCodec<GS> codec,
+			SearchContext<Move, GS> ctx, ReadableByteChannel channel) throws IOException {
+		checkCodec(codec);
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		buffer.flip();
+		try {
+			fill(buffer, 16 + codec.maxStateBytes(), channel);
+			if (buffer.getLong() != MAGIC) throw new IOException("Not a search tree");
+			if (buffer.getInt() != VERSION) throw new IOException("Unsupported search tree version");
+			final int flags = buffer.getInt();
+			final boolean squaredScores = (flags & SQUARED_SCORES) != 0;
+			final boolean amaf = (flags & AMAF) != 0;
+			final Node<Move, GS> root = new Node<>(null, codec.readState(buffer), null);
+			// Nodes on the path from the root, and the number of their children yet to read.
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			Node<Move, GS>[] parentStack = new Node[INITIAL_STACK_DEPTH];
+			int[] remainingStack = new int[INITIAL_STACK_DEPTH];
+			int depth = 0;
+			Node<Move, GS> node = root;
+			while (true) {
+				fill(buffer, MAX_NODE_BYTES, channel);
+				final int visits = buffer.getInt();
+				final double sumScores = buffer.getDouble();
+				final double sumSquaredScores = squaredScores ? buffer.getDouble() : 0;
+				final int amafVisits = amaf ? buffer.getInt() : 0;
+				final double amafSumScores = amaf ? buffer.getDouble() : 0;
+				node.restoreStatistics(visits, sumScores, sumSquaredScores, amafVisits, amafSumScores);
+				final int childCount = buffer.getInt();
+				if (childCount >= 0) {
+					node.restoreExpansion(ctx);
+					if (childCount > 0) {
+						if (depth == parentStack.length) {
+							parentStack = Arrays.copyOf(parentStack, 2 * depth);
+							remainingStack = Arrays.copyOf(remainingStack, 2 * depth);
+						}
+						parentStack[depth] = node;
+						remainingStack[depth] = childCount;
+						++depth;
+					}
+				}
+				while (depth > 0 && remainingStack[depth - 1] == 0) parentStack[--depth] = null;
+				if (depth == 0) return root;
+				--remainingStack[depth - 1];
+				final Node<Move, GS> parent = parentStack[depth - 1];
+				fill(buffer, Math.max(4, codec.maxStateBytes()), channel);
+				node = parent.childrenSavedByState() ? parent.restoreChild(codec.readState(buffer), ctx)
+						: parent.restoreChild(buffer.getInt(), ctx);
+				if (node == null) throw new IOException("Search tree does not match the game");
+			}
+		} catch (BufferUnderflowException e) {
+			throw new EOFException("Truncated search tree");
+		}
+	}
+
+	/**
+	 * Read from the channel until the buffer has at least the given number of bytes remaining, or the channel
+	 * reaches its end.
+	 */
+	private static void fill(ByteBuffer buffer, int bytes, ReadableByteChannel channel) throws IOException {
+		if (buffer.remaining() >= bytes) return;
+		buffer.compact();
+		try {
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0) break;
+			}
+		} finally {
+			buffer.flip();
+		}
+	}
+
+	private static void checkCodec(TreeCodec<?> codec) {
+		if (codec.maxStateBytes() > BUFFER_BYTES / 16) {
+			throw new IllegalArgumentException("Game states too large to encode: " + codec.maxStateBytes());
+		}
+	}
+}
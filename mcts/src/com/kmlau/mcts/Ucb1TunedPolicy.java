@@ -0,0 +1,67 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+/**
+ * UCB1-Tuned selection, bounding the exploration term of each child by the variance of its scores.
+ *
+ * @author K M Lau
+ */
+final class Ucb1TunedPolicy implements SelectionPolicy {
+	// Largest variance of a random variable within [0, 1].
+	private static final double MAX_VARIANCE = 0.25;
+
+	private final double exploration;
+
+	Ucb1TunedPolicy(double exploration) {
+		if (!(exploration >= 0)) {
+			throw new IllegalArgumentException("Exploration constant must not be negative: " + exploration);
+		}
+		this.exploration = exploration;
+	}
+
+	@Override
+	public double parentTerm(int parentVisits) {
+		return MathTables.log(parentVisits);
+	}
+
+	@Override
+	public double score(double parentTerm, int visits, double meanScore, double meanSquaredScore, double prior) {
+		final double logRatio = parentTerm / visits;
+		// The sum of squares and the sum are read apart, and may be rounded, so the variance may come out negative.
+		final double variance = Math.max(0, meanSquaredScore - meanScore * meanScore);
+		final double varianceBound = variance + Math.sqrt(2 * logRatio);
+		return meanScore + exploration * Math.sqrt(logRatio * Math.min(MAX_VARIANCE, varianceBound));
+	}
+
+	@Override
+	public boolean usesSquaredScores() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "UCB1-Tuned(" + exploration + ")";
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+/**
+ * UCT selection. The exploration term is the product of c * sqrt(ln(parent visits)), computed once per node, and
+ * 1 / sqrt(visits) of each child, both looked up in tables.
+ *
+ * @author K M Lau
+ */
+final class UctPolicy implements SelectionPolicy {
+	static final UctPolicy DEFAULT = new UctPolicy(DEFAULT_UCT_EXPLORATION);
+
+	private final double exploration;
+
+	UctPolicy(double exploration) {
+		if (!(exploration >= 0)) {
+			throw new IllegalArgumentException("Exploration constant must not be negative: " + exploration);
+		}
+		this.exploration = exploration;
+	}
+
+	@Override
+	public double parentTerm(int parentVisits) {
+		return exploration * Math.sqrt(MathTables.log(parentVisits));
+	}
+
+	@Override
+	public double score(double parentTerm, int visits, double meanScore, double meanSquaredScore, double prior) {
+		return meanScore + parentTerm * MathTables.inverseSqrt(visits);
+	}
+
+	@Override
+	public String toString() {
+		return "UCT(" + exploration + ")";
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+
+package com.kmlau.mcts;
+
+/**
+ * Optional extension of GameState for games whose moves can be taken back cheaply. Each worker of
+ * MonteCarloTreeSearch then keeps a private copy of the root game state, on which it replays the moves down to a
+ * leaf node and plays out, then takes all the moves back, instead of cloning the game state of the leaf for every
+ * playout. Paths through chance moves are replayed only if the game state supports indexed chance outcomes.
+ *
+ * @param <Move> class of non random moves.
+ * @author K M Lau
+ *
+ */
+public interface UndoableGameState<Move, GS extends GameState<Move, GS>> extends GameState<Move, GS> {
+	/**
+	 * Make a move on the game state, like makeMove().
+	 * @return token for unmakeMove() to take back the move.
+	 * @throws IllegalStateException if this state pertains to a chance node.
+	 * @throws IllegalArgumentException if the move, m, is illegal for this state.
+	 */
+	long makeMoveUndoable(Move m) throws IllegalStateException, IllegalArgumentException;
+
+	/**
+	 * Make a random move, like makeChanceMove().
+	 * @return token for unmakeMove() to take back the move.
+	 * @throws IllegalStateException if the current player is a real player (not a chance node)
+	 */
+	long makeChanceMoveUndoable() throws IllegalStateException;
+
+	/**
+	 * Make the chance move with the given outcome, like makeChanceOutcome(), if indexed chance outcomes are
+	 * supported.
+	 * @return token for unmakeMove() to take back the move.
+	 * @throws IllegalStateException if current player is not 0
+	 * @throws UnsupportedOperationException if indexed outcomes are not supported.
+	 */
+	default long makeChanceOutcomeUndoable(int outcome) throws IllegalStateException, UnsupportedOperationException {
+		throw new UnsupportedOperationException("Indexed chance outcomes not supported by " + getClass().getName());
+	}
+
+	/**
+	 * Take back the most recent move not yet taken back. Moves must be taken back in reverse order.
+	 * @param undoToken token returned when the move was made.
+	 */
+	void unmakeMove(long undoToken);
+}
@@ -1,9 +1,8 @@
 package com.kmlau.mcts;
 
 import java.util.Map;
-import java.util.Random;
-import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Randomly picking an instance from a list with specific per instance weights.
@@ -13,10 +12,8 @@ import java.util.TreeMap;
  */
 class WeightedRandom<V> {
 	private final TreeMap<Double, V> byCumulativeProb = new TreeMap<>();
-	private final Random random;
 
-	WeightedRandom(Map<V, Double> objectToProb, Random random) {
-		this.random = random;
+	WeightedRandom(Map<V, Double> objectToProb) {
 		double cumulativeProb = 0;
 		for (Map.Entry<V, Double> e : objectToProb.entrySet()) {
 			if (e.getValue() > 0) {
@@ -30,12 +27,8 @@ class WeightedRandom<V> {
 		if (byCumulativeProb.isEmpty()) return null;
 
 		Map.Entry<Double, V> randomEntry =
-				byCumulativeProb.higherEntry(random.nextDouble());
+				byCumulativeProb.higherEntry(ThreadLocalRandom.current().nextDouble());
 		return randomEntry != null ? randomEntry.getValue() : byCumulativeProb.lastEntry().getValue();
-
-		// GWT compatible code:
-		//SortedMap<Double, V> x = byCumulativeProb.tailMap(random.nextDouble() - 1e-7);
-		//return x.entrySet().iterator().next().getValue();
 	}
 
 }
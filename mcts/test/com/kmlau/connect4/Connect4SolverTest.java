@@ -0,0 +1,141 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.connect4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.kmlau.mcts.MonteCarloTreeSearch;
+import com.kmlau.mcts.SearchLimits;
+
+/**
+ * Tests of Connect4Solver against a plain exhaustive negamax search, on random positions near the end of the game.
+ * @author K M Lau
+ */
+public class Connect4SolverTest {
+	private static final int CELLS = Connect4State.ROWS * Connect4State.COLUMNS;
+
+	/**
+	 * @return value of the game state for the player to move: 1 for a win, 0 for a draw, -1 for a loss, searching
+	 *   every move to the end of the game.
+	 */
+	private static int negamax(Connect4State state, Map<Connect4State, Integer> values) {
+		if (state.terminated()) return (int) state.utility(state.currentPlayer());
+		final Integer known = values.get(state);
+		if (known != null) return known;
+		int best = -1;
+		for (Move m : state.possibleMoves()) {
+			final Connect4State next = state.clone();
+			next.makeMove(m);
+			best = Math.max(best, -negamax(next, values));
+		}
+		values.put(state, best);
+		return best;
+	}
+
+	/**
+	 * @return a game state of random moves with the given number of empty cells, not terminated.
+	 */
+	private static Connect4State randomPosition(Random random, int emptyCells) {
+		while (true) {
+			final Connect4State state = new Connect4State();
+			while (!state.terminated() && CELLS - Long.bitCount(state.occupied()) > emptyCells) {
+				final List<Move> moves = state.possibleMoves();
+				state.makeMove(moves.get(random.nextInt(moves.size())));
+			}
+			if (!state.terminated()) return state;
+		}
+	}
+
+	@Test
+	public void solveMatchesExhaustiveSearch() {
+		final Random random = new Random(4);
+		final Connect4Solver shared = new Connect4Solver(12);
+		final Map<Connect4State, Integer> values = new HashMap<>();
+		final int[] valueCounts = new int[3];
+		for (int i = 0; i < 300; ++i) {
+			final Connect4State state = randomPosition(random, 1 + random.nextInt(12));
+			final int player = state.currentPlayer();
+			final int value = negamax(state, values);
+			++valueCounts[value + 1];
+			final double[] expected = new double[3];
+			expected[player] = value;
+			expected[3 - player] = -value;
+			assertArrayEquals(state.toString(), expected, new Connect4Solver(12).solve(state), 0);
+			// Entries left in the table by other positions do not change the result.
+			assertArrayEquals(state.toString(), expected, shared.solve(state), 0);
+		}
+		// Wins, draws and losses are all tested.
+		for (int count : valueCounts) assertTrue(count > 0);
+	}
+
+	@Test
+	public void terminatedAndTooManyEmptyCells() {
+		final Random random = new Random(9);
+		final Connect4State state = randomPosition(random, 12);
+		assertNull(new Connect4Solver(11).solve(state));
+		// A vertical win of player 1.
+		final Connect4State won = new Connect4State();
+		for (int col : new int[]{0, 1, 0, 1, 0, 1, 0}) won.makeMove(Move.of(col));
+		assertEquals(1, won.utility(1), 0);
+		assertArrayEquals(new double[]{0, 1, -1}, new Connect4Solver(0).solve(won), 0);
+	}
+
+	/**
+	 * Self-play reusing the search tree: nodes valued by the endgame solver are left unexpanded, and are searched
+	 * again when they become the root.
+	 */
+	@Test
+	public void searchReusesSolvedNodes() {
+		for (boolean solverMode : new boolean[]{false, true}) {
+			final MonteCarloTreeSearch<Move, Connect4State> mcts = new MonteCarloTreeSearch<>();
+			mcts.setTreeReuse(true);
+			mcts.setEndgameSolver(new Connect4Solver(16));
+			if (solverMode) mcts.setSolver(true, 1);
+			final SearchLimits limits = new SearchLimits.Builder().setMaxPlayouts(2000).setEarlyStopping(false).build();
+			final Connect4State state = new Connect4State();
+			while (!state.terminated()) {
+				final Move m = mcts.searchGoodMove(state, limits);
+				assertTrue(state.possibleMoves().contains(m));
+				if (solverMode && CELLS - Long.bitCount(state.occupied()) <= 16) {
+					// The proven move keeps the solved value of the position.
+					final double[] before = new Connect4Solver(16).solve(state);
+					final Connect4State next = state.clone();
+					next.makeMove(m);
+					assertArrayEquals(next.toString(), before, new Connect4Solver(16).solve(next), 0);
+				}
+				state.makeMove(m);
+			}
+		}
+	}
+}
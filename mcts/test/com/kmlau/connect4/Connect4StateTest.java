@@ -0,0 +1,211 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.connect4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the bitboard game logic of Connect4State: win detection along the edges of the board, where the sentinel
+ * bits keep lines from wrapping across columns, draws, and cloning and hashing.
+ * @author K M Lau
+ */
+public class Connect4StateTest {
+	private static Connect4State play(int... columns) {
+		final Connect4State s = new Connect4State();
+		for (int c : columns) s.makeMove(Move.of(c));
+		return s;
+	}
+
+	private static long cell(int col, int row) {
+		return 1L << (col * Connect4State.COLUMN_BITS + row);
+	}
+
+	/**
+	 * @return whether the given player has four in a row, found by scanning the cells of the board.
+	 */
+	private static boolean naiveFourInARow(Connect4State s, int player) {
+		final int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+		for (int col = 0; col < Connect4State.COLUMNS; ++col) {
+			for (int row = 0; row < Connect4State.ROWS; ++row) {
+				for (int[] d : directions) {
+					int n = 0;
+					for (int c = col, r = row; n < 4 && c >= 0 && c < Connect4State.COLUMNS && r >= 0
+							&& r < Connect4State.ROWS && s.getCell(r, c) == player; c += d[0], r += d[1]) {
+						++n;
+					}
+					if (n == 4) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Play the moves, checking that the game goes on until the last one, which wins it for the player making it.
+	 */
+	private static void assertLastMoveWins(int... columns) {
+		final Connect4State s = play(Arrays.copyOf(columns, columns.length - 1));
+		assertFalse(s.terminated());
+		final int player = s.currentPlayer();
+		s.makeMove(Move.of(columns[columns.length - 1]));
+		assertTrue(s.terminated());
+		assertEquals(1.0, s.utility(player), 0);
+		assertEquals(-1.0, s.utility(3 - player), 0);
+		assertEquals(0, s.legalMoveMask());
+		assertTrue(s.possibleMoves().isEmpty());
+	}
+
+	@Test
+	public void horizontalWinsAtBothEdges() {
+		assertLastMoveWins(0, 0, 1, 1, 2, 2, 3);
+		assertLastMoveWins(3, 3, 4, 4, 5, 5, 6);
+	}
+
+	@Test
+	public void verticalWinAtTopOfEdgeColumn() {
+		assertLastMoveWins(6, 6, 6, 0, 6, 0, 6, 1, 6);
+		assertLastMoveWins(0, 0, 0, 6, 0, 6, 0, 5, 0);
+	}
+
+	@Test
+	public void diagonalWinsAtEdges() {
+		// From the bottom of column 3 up to column 6, and its mirror image from column 3 up to column 0.
+		assertLastMoveWins(3, 4, 4, 5, 5, 6, 5, 6, 6, 0, 6);
+		assertLastMoveWins(3, 2, 2, 1, 1, 0, 1, 0, 0, 6, 0);
+	}
+
+	@Test
+	public void linesDoNotWrapAcrossColumns() {
+		// The top three cells of a column and the bottom cell of the next one.
+		assertFalse(Connect4State.hasFourInARow(cell(0, 3) | cell(0, 4) | cell(0, 5) | cell(1, 0)));
+		// Diagonals leaving the board at the bottom or the top run into a sentinel bit, then on into the next column.
+		assertFalse(Connect4State.hasFourInARow(cell(0, 2) | cell(1, 1) | cell(2, 0) | cell(3, 5)));
+		assertFalse(Connect4State.hasFourInARow(cell(0, 3) | cell(1, 4) | cell(2, 5) | cell(5, 0)));
+		// The same through a game: player 1 holds the top of column 0 and the bottom of column 1.
+		final Connect4State s = play(1, 0, 6, 0, 6, 0, 0, 5, 0, 5, 0);
+		assertEquals(1, s.getCell(5, 0));
+		assertEquals(1, s.getCell(0, 1));
+		assertFalse(s.terminated());
+		assertFalse(Connect4State.hasFourInARow(s.discs(1)));
+	}
+
+	@Test
+	public void winDetectionMatchesCellScan() {
+		final Random random = new Random(42);
+		for (int game = 0; game < 2000; ++game) {
+			final Connect4State s = new Connect4State();
+			while (!s.terminated()) {
+				final List<Move> moves = s.possibleMoves();
+				s.makeMove(moves.get(random.nextInt(moves.size())));
+				final boolean won1 = naiveFourInARow(s, 1), won2 = naiveFourInARow(s, 2);
+				assertEquals(won1, s.utility(1) == 1);
+				assertEquals(won2, s.utility(2) == 1);
+				assertEquals(won1 || won2 || Long.bitCount(s.occupied()) == 42, s.terminated());
+			}
+		}
+		// Arbitrary disc patterns, not only those reachable in a game.
+		for (int i = 0; i < 100000; ++i) {
+			final long discs = random.nextLong() & random.nextLong() & Connect4State.BOARD_MASK;
+			boolean expected = false;
+			for (int col = 0; col < Connect4State.COLUMNS && !expected; ++col) {
+				for (int row = 0; row < Connect4State.ROWS && !expected; ++row) {
+					expected = lineFrom(discs, col, row, 1, 0) || lineFrom(discs, col, row, 0, 1)
+							|| lineFrom(discs, col, row, 1, 1) || lineFrom(discs, col, row, 1, -1);
+				}
+			}
+			assertEquals(Long.toHexString(discs), expected, Connect4State.hasFourInARow(discs));
+		}
+	}
+
+	private static boolean lineFrom(long discs, int col, int row, int dCol, int dRow) {
+		for (int i = 0; i < 4; ++i, col += dCol, row += dRow) {
+			if (col < 0 || col >= Connect4State.COLUMNS || row < 0 || row >= Connect4State.ROWS) return false;
+			if ((discs & cell(col, row)) == 0) return false;
+		}
+		return true;
+	}
+
+	@Test
+	public void fullBoardDraw() {
+		final String moves = "151315255441606143210322302046266565344003";
+		final Connect4State s = new Connect4State();
+		for (int i = 0; i < moves.length(); ++i) {
+			assertFalse(s.terminated());
+			s.makeMove(Move.of(moves.charAt(i) - '0'));
+		}
+		assertTrue(s.terminated());
+		assertEquals(Connect4State.BOARD_MASK, s.occupied());
+		assertEquals(0.0, s.utility(1), 0);
+		assertEquals(0.0, s.utility(2), 0);
+		assertTrue(s.possibleMoves().isEmpty());
+	}
+
+	@Test
+	public void cloneAndHashFollowTheMoves() {
+		// Transposed move orders reach equal states with equal hashes.
+		final Connect4State a = play(0, 1, 2, 3), b = play(2, 3, 0, 1);
+		assertEquals(a, b);
+		assertEquals(a.zobristHash(), b.zobristHash());
+		assertEquals(a.hashCode(), b.hashCode());
+		assertNotEquals(a.zobristHash(), play(0, 1, 2).zobristHash());
+
+		final Random random = new Random(7);
+		for (int game = 0; game < 200; ++game) {
+			final Connect4State s = new Connect4State();
+			final long[] hashes = new long[43];
+			final long[] tokens = new long[42];
+			int n = 0;
+			while (!s.terminated()) {
+				hashes[n] = s.zobristHash();
+				final Connect4State copy = s.clone();
+				assertEquals(s, copy);
+				assertEquals(s.zobristHash(), copy.zobristHash());
+				final List<Move> moves = s.possibleMoves();
+				final Move m = moves.get(random.nextInt(moves.size()));
+				copy.makeMove(m);
+				tokens[n++] = s.makeMoveUndoable(m);
+				// The clone is independent of the original, and follows the same moves to the same state.
+				assertEquals(s, copy);
+				assertEquals(s.zobristHash(), copy.zobristHash());
+			}
+			// Taking the moves back restores every state and hash on the way.
+			while (n > 0) {
+				s.unmakeMove(tokens[--n]);
+				assertEquals(hashes[n], s.zobristHash());
+				assertFalse(s.terminated());
+			}
+			assertEquals(new Connect4State(), s);
+			assertEquals(0, s.zobristHash());
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.g2048;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.kmlau.mcts.GameState;
+
+/**
+ * Tests of the packed board of G2048State against known boards and a plain implementation of the rules: sliding and
+ * merging in each direction, the legality of moves, and taking moves back.
+ * @author K M Lau
+ */
+public class G2048StateTest {
+	/**
+	 * @return cell (row, col) of the i-th tile along a line that slides towards tile 0 by the given move; line is
+	 *   row or column 1, so the board has empty lines on both sides.
+	 */
+	private static int[] cellAlong(G2048State.Move m, int i) {
+		switch (m) {
+		case LEFT:
+			return new int[]{1, i};
+		case RIGHT:
+			return new int[]{1, 3 - i};
+		case UP:
+			return new int[]{i, 1};
+		default:
+			return new int[]{3 - i, 1};
+		}
+	}
+
+	private static int log2(int tile) {
+		return tile == 0 ? 0 : Integer.numberOfTrailingZeros(tile);
+	}
+
+	/**
+	 * Lay the tiles along a line in the direction of the move, make the move, and check the tiles of the line after.
+	 */
+	private static void assertSlide(G2048State.Move m, int[] before, int[] after) {
+		final G2048State.Builder builder = new G2048State.Builder();
+		for (int i = 0; i < 4; ++i) {
+			final int[] cell = cellAlong(m, i);
+			builder.setBoard(cell[0], cell[1], log2(before[i]));
+		}
+		final G2048State s = builder.build();
+		s.makeMove(m);
+		final int[] tiles = new int[4];
+		for (int i = 0; i < 4; ++i) {
+			final int[] cell = cellAlong(m, i);
+			tiles[i] = s.getTile(cell[0], cell[1]);
+		}
+		assertArrayEquals(m + " " + Arrays.toString(before), after, tiles);
+		assertEquals(GameState.PLAYER_CHANCE_NODE, s.currentPlayer());
+	}
+
+	@Test
+	public void mergeRulesInEachDirection() {
+		for (G2048State.Move m : G2048State.Move.values()) {
+			assertSlide(m, new int[]{2, 2, 2, 2}, new int[]{4, 4, 0, 0});
+			assertSlide(m, new int[]{2, 2, 4, 0}, new int[]{4, 4, 0, 0});
+			assertSlide(m, new int[]{2, 0, 2, 4}, new int[]{4, 4, 0, 0});
+			assertSlide(m, new int[]{4, 4, 4, 0}, new int[]{8, 4, 0, 0});
+			assertSlide(m, new int[]{2, 2, 4, 4}, new int[]{4, 8, 0, 0});
+			// A merged tile does not merge again in the same move.
+			assertSlide(m, new int[]{4, 2, 2, 4}, new int[]{4, 4, 4, 0});
+			assertSlide(m, new int[]{0, 0, 0, 2}, new int[]{2, 0, 0, 0});
+			assertSlide(m, new int[]{0, 8, 8, 16}, new int[]{16, 16, 0, 0});
+			// Tiles are capped at 2^15, which do not merge.
+			assertSlide(m, new int[]{0, 32768, 32768, 0}, new int[]{32768, 32768, 0, 0});
+		}
+	}
+
+	/**
+	 * @return the grid of tile logarithms after the move by the plain rules of the game: tiles slide towards the
+	 *   side of the move, and each pair of equal tiles meeting merges once, nearest to that side first.
+	 */
+	private static int[][] naiveMove(int[][] grid, G2048State.Move m) {
+		final int[][] result = new int[4][4];
+		for (int line = 0; line < 4; ++line) {
+			final List<Integer> tiles = new ArrayList<>();
+			for (int i = 0; i < 4; ++i) {
+				final int[] cell = lineCell(m, line, i);
+				if (grid[cell[0]][cell[1]] > 0) tiles.add(grid[cell[0]][cell[1]]);
+			}
+			final List<Integer> merged = new ArrayList<>();
+			for (int i = 0; i < tiles.size(); ++i) {
+				final int val = tiles.get(i);
+				if (i + 1 < tiles.size() && tiles.get(i + 1) == val && val < 15) {
+					merged.add(val + 1);
+					++i;
+				} else {
+					merged.add(val);
+				}
+			}
+			for (int i = 0; i < merged.size(); ++i) {
+				final int[] cell = lineCell(m, line, i);
+				result[cell[0]][cell[1]] = merged.get(i);
+			}
+		}
+		return result;
+	}
+
+	private static int[] lineCell(G2048State.Move m, int line, int i) {
+		switch (m) {
+		case LEFT:
+			return new int[]{line, i};
+		case RIGHT:
+			return new int[]{line, 3 - i};
+		case UP:
+			return new int[]{i, line};
+		default:
+			return new int[]{3 - i, line};
+		}
+	}
+
+	private static int[][] grid(G2048State s) {
+		final int[][] grid = new int[4][4];
+		for (int row = 0; row < 4; ++row) {
+			for (int col = 0; col < 4; ++col) grid[row][col] = log2(s.getTile(row, col));
+		}
+		return grid;
+	}
+
+	private static G2048State build(int[][] grid) {
+		final G2048State.Builder builder = new G2048State.Builder();
+		for (int row = 0; row < 4; ++row) {
+			for (int col = 0; col < 4; ++col) builder.setBoard(row, col, grid[row][col]);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void movesMatchPlainRules() {
+		final Random random = new Random(2048);
+		for (int i = 0; i < 20000; ++i) {
+			// Few distinct small values, so that merges are frequent; sometimes the largest tiles.
+			final int[][] grid = new int[4][4];
+			for (int[] row : grid) {
+				for (int col = 0; col < 4; ++col) {
+					row[col] = random.nextInt(3) == 0 ? 0 : random.nextInt(10) == 0 ? 14 + random.nextInt(2)
+							: 1 + random.nextInt(3);
+				}
+			}
+			final G2048State s = build(grid);
+			final List<G2048State.Move> legal = new ArrayList<>();
+			for (G2048State.Move m : G2048State.Move.values()) {
+				final int[][] expected = naiveMove(grid, m);
+				if (Arrays.deepEquals(expected, grid)) continue;
+				legal.add(m);
+				final G2048State next = s.clone();
+				next.makeMove(m);
+				assertTrue(m + "\n" + s, Arrays.deepEquals(expected, grid(next)));
+			}
+			assertEquals(s.toString(), legal, s.possibleMoves());
+			assertEquals(legal.isEmpty(), s.terminated());
+		}
+	}
+
+	@Test
+	public void transposeSwapsRowsAndColumns() {
+		final Random random = new Random(5);
+		for (int i = 0; i < 1000; ++i) {
+			final long board = random.nextLong();
+			final long t = G2048State.transpose(board);
+			for (int row = 0; row < 4; ++row) {
+				for (int col = 0; col < 4; ++col) {
+					assertEquals((board >>> (16 * row + 4 * col)) & 0xF, (t >>> (16 * col + 4 * row)) & 0xF);
+				}
+			}
+			assertEquals(board, G2048State.transpose(t));
+		}
+	}
+
+	@Test
+	public void movesThatChangeNothingAreIllegal() {
+		// Tiles against the top left corner, unable to merge: only RIGHT and DOWN move them.
+		final G2048State s = new G2048State.Builder().setBoard(0, 0, 1).setBoard(0, 1, 2).build();
+		assertEquals(Arrays.asList(G2048State.Move.RIGHT, G2048State.Move.DOWN), s.possibleMoves());
+		for (G2048State.Move m : new G2048State.Move[]{G2048State.Move.LEFT, G2048State.Move.UP}) {
+			final long board = s.board(), hash = s.zobristHash();
+			try {
+				s.makeMove(m);
+				fail(m + " should be illegal");
+			} catch (IllegalArgumentException expected) {
+			}
+			assertEquals(board, s.board());
+			assertEquals(hash, s.zobristHash());
+			assertEquals(1, s.currentPlayer());
+			assertEquals(0, s.pastMoveCount());
+		}
+		// A full board without equal neighbours admits no move at all.
+		final int[][] grid = {{1, 2, 1, 2}, {2, 1, 2, 1}, {1, 2, 1, 2}, {2, 1, 2, 1}};
+		final G2048State full = build(grid);
+		assertTrue(full.possibleMoves().isEmpty());
+		assertTrue(full.terminated());
+		assertFalse(build(new int[][]{{1, 2, 1, 2}, {2, 1, 2, 1}, {1, 2, 1, 2}, {2, 1, 2, 2}}).terminated());
+	}
+
+	@Test
+	public void undoRestoresExactState() {
+		final Random random = new Random(11);
+		for (int game = 0; game < 50; ++game) {
+			final G2048State s = new G2048State.Builder().setBoard(2, 1, 1).setBoard(3, 2, 1).build();
+			final List<long[]> snapshots = new ArrayList<>();
+			final List<Long> tokens = new ArrayList<>();
+			while (!s.terminated()) {
+				snapshots.add(new long[]{s.board(), s.currentPlayer(), s.pastMoveCount(), s.zobristHash()});
+				final long token;
+				if (s.currentPlayer() == GameState.PLAYER_CHANCE_NODE) {
+					token = random.nextBoolean() ? s.makeChanceMoveUndoable()
+							: s.makeChanceOutcomeUndoable(random.nextInt(s.chanceOutcomeProbs().length));
+				} else {
+					final List<G2048State.Move> moves = s.possibleMoves();
+					token = s.makeMoveUndoable(moves.get(random.nextInt(moves.size())));
+				}
+				tokens.add(token);
+				// The incrementally updated hash is the hash of the state built from scratch.
+				assertEquals(G2048State.of(s.board(), s.currentPlayer(), s.pastMoveCount()).zobristHash(),
+						s.zobristHash());
+			}
+			for (int i = tokens.size() - 1; i >= 0; --i) {
+				s.unmakeMove(tokens.get(i));
+				final long[] snapshot = snapshots.get(i);
+				assertEquals(snapshot[0], s.board());
+				assertEquals(snapshot[1], s.currentPlayer());
+				assertEquals(snapshot[2], s.pastMoveCount());
+				assertEquals(snapshot[3], s.zobristHash());
+			}
+		}
+	}
+}
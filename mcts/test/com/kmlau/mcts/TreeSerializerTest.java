@@ -0,0 +1,294 @@
+/*
+ Copyright (c) 2014 K. M. Lau
+ Licensed under the MIT license. You may not use this file unless in compliance with this license.
+ 
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+*/
+
+package com.kmlau.mcts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.kmlau.connect4.Connect4State;
+import com.kmlau.g2048.G2048State;
+import com.kmlau.g2048.G2048TreeCodec;
+
+/**
+ * Tests of saving search trees and loading them back: chance children coded by outcome index and by game state,
+ * with and without the optional statistics, and files that are not whole trees of the game.
+ * @author K M Lau
+ */
+public class TreeSerializerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * 2048 without indexed chance outcomes, so that the children of its chance nodes are saved by game state.
+	 */
+	private static final class StateCodedG2048 implements GameState<G2048State.Move, StateCodedG2048> {
+		final G2048State state;
+
+		StateCodedG2048(G2048State state) {
+			this.state = state;
+		}
+
+		@Override
+		public int playerCount() {
+			return state.playerCount();
+		}
+
+		@Override
+		public int currentPlayer() {
+			return state.currentPlayer();
+		}
+
+		@Override
+		public List<G2048State.Move> possibleMoves() {
+			return state.possibleMoves();
+		}
+
+		@Override
+		public Map<StateCodedG2048, Double> nextChanceStatesWithProbs() {
+			final Map<StateCodedG2048, Double> result = new HashMap<>();
+			for (Map.Entry<G2048State, Double> e : state.nextChanceStatesWithProbs().entrySet()) {
+				result.put(new StateCodedG2048(e.getKey()), e.getValue());
+			}
+			return result;
+		}
+
+		@Override
+		public boolean terminated() {
+			return state.terminated();
+		}
+
+		@Override
+		public double utility(int player) {
+			return state.utility(player);
+		}
+
+		@Override
+		public double[] utilities() {
+			return state.utilities();
+		}
+
+		@Override
+		public void makeMove(G2048State.Move m) {
+			state.makeMove(m);
+		}
+
+		@Override
+		public void makeChanceMove() {
+			state.makeChanceMove();
+		}
+
+		@Override
+		public StateCodedG2048 clone() {
+			return new StateCodedG2048(state.clone());
+		}
+
+		@Override
+		public boolean equals(Object x) {
+			return x instanceof StateCodedG2048 && state.equals(((StateCodedG2048) x).state);
+		}
+
+		@Override
+		public int hashCode() {
+			return state.hashCode();
+		}
+	}
+
+	private static final class StateCodedG2048Codec implements TreeCodec<StateCodedG2048> {
+		private final G2048TreeCodec codec = new G2048TreeCodec();
+
+		@Override
+		public int maxStateBytes() {
+			return codec.maxStateBytes();
+		}
+
+		@Override
+		public void writeState(StateCodedG2048 gameState, ByteBuffer buffer) {
+			codec.writeState(gameState.state, buffer);
+		}
+
+		@Override
+		public StateCodedG2048 readState(ByteBuffer buffer) {
+			return new StateCodedG2048(codec.readState(buffer));
+		}
+	}
+
+	private static G2048State start2048() {
+		return new G2048State.Builder().setBoard(2, 1, 1).setBoard(3, 2, 1).build();
+	}
+
+	private static SearchLimits playouts(int n) {
+		return new SearchLimits.Builder().setMaxPlayouts(n).build();
+	}
+
+	/**
+	 * Assert the trees are equal, matching children by move and game state since the children of a chance node
+	 * coded by state may be created in another order.
+	 * @return number of nodes compared.
+	 */
+	private static <Move, GS extends GameState<Move, GS>> int assertSameTree(Node<Move, GS> expected,
+			Node<Move, GS> actual, boolean squaredScores, boolean amaf) {
+		assertEquals(expected.gameState(), actual.gameState());
+		assertEquals(expected.visitCount(), actual.visitCount());
+		assertEquals(expected.sumScores(), actual.sumScores(), 0);
+		assertEquals(squaredScores ? expected.sumSquaredScores() : 0, actual.sumSquaredScores(), 0);
+		assertEquals(amaf ? expected.amafVisitCount() : 0, actual.amafVisitCount());
+		assertEquals(amaf ? expected.amafSumScores() : 0, actual.amafSumScores(), 0);
+		final List<Node<Move, GS>> expectedChildren = expected.getChildren();
+		final List<Node<Move, GS>> actualChildren = actual.getChildren();
+		if (expectedChildren == null) {
+			assertEquals(null, actualChildren);
+			return 1;
+		}
+		assertNotNull(actualChildren);
+		assertEquals(expectedChildren.size(), actualChildren.size());
+		int nodes = 1;
+		for (Node<Move, GS> child : expectedChildren) {
+			Node<Move, GS> match = null;
+			for (Node<Move, GS> candidate : actualChildren) {
+				if (Objects.equals(candidate.causationMove(), child.causationMove())
+						&& candidate.gameState().equals(child.gameState())) {
+					match = candidate;
+				}
+			}
+			assertNotNull("No child " + child.causationMove() + "\n" + child.gameState(), match);
+			nodes += assertSameTree(child, match, squaredScores, amaf);
+		}
+		return nodes;
+	}
+
+	private <Move, GS extends GameState<Move, GS>> void assertRoundTrip(MonteCarloTreeSearch<Move, GS> saver,
+			MonteCarloTreeSearch<Move, GS> loader, GS state, TreeCodec<GS> codec, boolean squaredScores,
+			boolean amaf) throws IOException {
+		saver.searchGoodMove(state, playouts(3000));
+		final Path file = folder.newFile().toPath();
+		saver.saveSearchTree(file, codec);
+		loader.loadSearchTree(file, codec);
+		final Node<Move, GS> root = saver.getRecentSearchTreeRoot();
+		final int nodes = assertSameTree(root, loader.getRecentSearchTreeRoot(), squaredScores, amaf);
+		assertTrue("nodes " + nodes, nodes > 100);
+		// The loaded tree is searched further.
+		loader.searchGoodMove(state, playouts(500));
+		assertEquals(root.visitCount() + loader.getRecentSearchStats().playouts(),
+				loader.getRecentSearchTreeRoot().visitCount());
+	}
+
+	@Test
+	public void roundTripOfIndexCodedChanceNodes() throws IOException {
+		assertRoundTrip(new MonteCarloTreeSearch<>(), new MonteCarloTreeSearch<>(), start2048(),
+				new G2048TreeCodec(), false, false);
+	}
+
+	@Test
+	public void roundTripOfSquaredScoresAndAmaf() throws IOException {
+		final MonteCarloTreeSearch<G2048State.Move, G2048State> saver = new MonteCarloTreeSearch<>();
+		final MonteCarloTreeSearch<G2048State.Move, G2048State> loader = new MonteCarloTreeSearch<>();
+		for (MonteCarloTreeSearch<G2048State.Move, G2048State> mcts : Arrays.asList(saver, loader)) {
+			mcts.setSelectionPolicy(SelectionPolicy.ucb1Tuned(1));
+			mcts.setRaveEquivalence(20);
+		}
+		assertRoundTrip(saver, loader, start2048(), new G2048TreeCodec(), true, true);
+	}
+
+	@Test
+	public void roundTripOfStateCodedChanceNodes() throws IOException {
+		final StateCodedG2048 state = new StateCodedG2048(start2048());
+		assertRoundTrip(new MonteCarloTreeSearch<>(), new MonteCarloTreeSearch<>(), state,
+				new StateCodedG2048Codec(), false, false);
+	}
+
+	@Test
+	public void truncatedTree() throws IOException {
+		final MonteCarloTreeSearch<G2048State.Move, G2048State> mcts = new MonteCarloTreeSearch<>();
+		mcts.searchGoodMove(start2048(), playouts(1000));
+		final Path file = folder.newFile().toPath();
+		mcts.saveSearchTree(file, new G2048TreeCodec());
+		final byte[] bytes = Files.readAllBytes(file);
+		for (int length : new int[]{0, 10, 20, bytes.length / 2, bytes.length - 1}) {
+			Files.write(file, Arrays.copyOf(bytes, length));
+			try {
+				new MonteCarloTreeSearch<G2048State.Move, G2048State>().loadSearchTree(file, new G2048TreeCodec());
+				fail("Loaded a tree truncated to " + length + " bytes");
+			} catch (EOFException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void treeOfAnotherGame() throws IOException {
+		// A Connect-4 tree whose root decodes as a 2048 state with two moves, fewer than the columns saved.
+		final MonteCarloTreeSearch<com.kmlau.connect4.Move, Connect4State> mcts = new MonteCarloTreeSearch<>();
+		mcts.searchGoodMove(new Connect4State(), playouts(1000));
+		final Path file = folder.newFile().toPath();
+		final G2048State root2048 = new G2048State.Builder().setBoard(0, 0, 1).setBoard(0, 1, 2).build();
+		mcts.saveSearchTree(file, new TreeCodec<Connect4State>() {
+			@Override
+			public int maxStateBytes() {
+				return new G2048TreeCodec().maxStateBytes();
+			}
+
+			@Override
+			public void writeState(Connect4State gameState, ByteBuffer buffer) {
+				new G2048TreeCodec().writeState(root2048, buffer);
+			}
+
+			@Override
+			public Connect4State readState(ByteBuffer buffer) {
+				throw new UnsupportedOperationException();
+			}
+		});
+		try {
+			new MonteCarloTreeSearch<G2048State.Move, G2048State>().loadSearchTree(file, new G2048TreeCodec());
+			fail("Loaded a tree of another game");
+		} catch (EOFException e) {
+			fail("Not truncated: " + e);
+		} catch (IOException expected) {
+			assertEquals("Search tree does not match the game", expected.getMessage());
+		}
+		// Not a tree at all.
+		Files.write(file, new byte[64]);
+		try {
+			new MonteCarloTreeSearch<G2048State.Move, G2048State>().loadSearchTree(file, new G2048TreeCodec());
+			fail("Loaded zeros");
+		} catch (IOException expected) {
+			assertEquals("Not a search tree", expected.getMessage());
+		}
+	}
+}